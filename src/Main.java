@@ -1,17 +1,39 @@
+import org.cult.Histogram;
+import org.cult.LoadTestRunner;
+import org.cult.TestIndexProcessor;
+import org.cult.TestRunner;
 import org.cult.Tests;
 import org.cult.UnitTest;
+import jdk.jfr.consumer.RecordingFile;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryType;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import static org.cult.Lib.assertEquals;
 
@@ -32,35 +54,183 @@ void main(String[] args) {
         case "clean":
             clean();
             break;
+        case "fetch":
+            var dependencies = extractDependencies().toDependencies();
+            if (dependencies != null) {
+                fetch(dependencies, false, true);
+            }
+            break;
         case "build":
             var executable = Artifact.JAR;
-            if (args.length >= 2) {
-                if (args[1].equals("-n") || args[1].equals("--native")) {
-                    executable = Artifact.NATIVE;
-                } else if (args[1].equals("-f") || args[1].equals("--fat")) {
-                    executable = Artifact.FAT;
+            var shrink = false;
+            String trace = null;
+            String profileName = null;
+            var offline = false;
+            var pgo = false;
+            List<String> traceArgs = Collections.emptyList();
+            for (var i = 1; i < args.length; i++) {
+                var option = args[i];
+                switch (option) {
+                    case "-n", "--native":
+                        executable = Artifact.NATIVE;
+                        break;
+                    case "-f", "--fat":
+                        executable = Artifact.FAT;
+                        break;
+                    case "-i", "--image":
+                        executable = Artifact.IMAGE;
+                        break;
+                    case "-l", "--layered":
+                        executable = Artifact.LAYERED;
+                        break;
+                    case "-s", "--shrink":
+                        shrink = true;
+                        break;
+                    case "--trace", "--trace=app":
+                        trace = "app";
+                        break;
+                    case "--trace=test":
+                        trace = "test";
+                        break;
+                    case "--offline":
+                        offline = true;
+                        break;
+                    case "--pgo":
+                        pgo = true;
+                        break;
+                    case "-P", "--launch-profile":
+                        profileName = launchProfileName(args, i++);
+                        break;
+                    case "--":
+                        traceArgs = List.of(Arrays.copyOfRange(args, i + 1, args.length));
+                        i = args.length;
+                        break;
+                    default:
+                        System.err.println(STR."error: unknown build option `\{option}`");
+                        System.exit(64);
+                }
+            }
+            if (shrink && executable != Artifact.FAT && executable != Artifact.NATIVE) {
+                System.err.println("error: `--shrink` requires `--fat` or `--native`");
+                System.exit(64);
+            }
+            if (trace != null && executable != Artifact.NATIVE) {
+                System.err.println("error: `--trace` requires `--native`");
+                System.exit(64);
+            }
+            if (pgo && executable != Artifact.NATIVE) {
+                System.err.println("error: `--pgo` requires `--native`");
+                System.exit(64);
+            }
+            // builds of different artifacts do different work, so each kind gets its own baseline in `stats`
+            var kind = STR."build:\{executable.name().toLowerCase()}\{shrink ? "+shrink" : ""}\{pgo ? "+pgo" : ""}";
+            Telemetry.begin(kind);
+            result = build(new BuildOptions(executable, shrink, trace, traceArgs, launchProfile(profileName), offline,
+                    pgo));
+            Telemetry.finish(result.isOk());
+            break;
+        case "test", "bench":
+            String testProfileName = null;
+            var testOffline = false;
+            for (var i = 1; i < args.length; i++) {
+                if (args[i].equals("-P") || args[i].equals("--launch-profile")) {
+                    testProfileName = launchProfileName(args, i++);
+                } else if (args[i].equals("--offline")) {
+                    testOffline = true;
                 } else {
-                    System.err.println(STR."error: unknown build option `\{args[1]}`");
+                    System.err.println(STR."error: unknown \{args[0]} option `\{args[i]}`");
                     System.exit(64);
                 }
             }
-            build(executable);
-            break;
-        case "test":
-            result = build(Artifact.JAR);
-            if (result.isOk()) {
-                test();
+            var testProfile = launchProfile(testProfileName);
+            Telemetry.begin(args[0]);
+            result = build(BuildOptions.of(Artifact.CLASSES).withOffline(testOffline));
+            var passed = false;
+            var testPhase = System.nanoTime();
+            if (result.isOk() && args[0].equals("test")) {
+                System.out.println("    running tests");
+                passed = test(testProfile, "org.cult.TestRunner", TestRunner::run);
+            } else if (result.isOk()) {
+                System.out.println("    running load tests");
+                passed = test(testProfile, "org.cult.LoadTestRunner", LoadTestRunner::run);
+            }
+            Telemetry.phase(args[0], testPhase);
+            Telemetry.finish(passed);
+            // failed tests, missed SLOs or a failed build have to fail CI too
+            if (!passed) {
+                System.exit(1);
             }
             break;
         case "run":
             List<String> runArgs = Collections.emptyList();
-            if (args.length >= 2 && args[1].equals("--")) {
-                runArgs = List.of(Arrays.copyOfRange(args, 2, args.length));
+            String recording = null;
+            String runProfileName = null;
+            var runOffline = false;
+            for (var i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--offline":
+                        runOffline = true;
+                        break;
+                    // records with JFR, `cpu` unless `alloc` follows
+                    case "-p", "--profile":
+                        var next = i + 1 < args.length ? args[i + 1] : "";
+                        if (next.equals("cpu") || next.equals("alloc")) {
+                            recording = args[++i];
+                        } else {
+                            recording = "cpu";
+                        }
+                        break;
+                    case "-P", "--launch-profile":
+                        runProfileName = launchProfileName(args, i++);
+                        break;
+                    case "--":
+                        runArgs = List.of(Arrays.copyOfRange(args, i + 1, args.length));
+                        i = args.length;
+                        break;
+                    default:
+                        System.err.println(STR."error: unknown run option `\{args[i]}`");
+                        System.exit(64);
+                }
             }
-            result = build(Artifact.FAT);
+            var runProfile = launchProfile(runProfileName);
+            result = build(BuildOptions.of(Artifact.FAT).withOffline(runOffline));
             if (result.isOk()) {
-                run(runArgs);
+                run(runArgs, recording, runProfile);
+            }
+            break;
+        case "startup":
+            var runs = 10;
+            String startupProfileName = null;
+            List<String> startupArgs = Collections.emptyList();
+            for (var i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-n", "--runs":
+                        if (i + 1 >= args.length || !args[i + 1].matches("[1-9][0-9]*")) {
+                            System.err.println("error: `--runs` needs a positive number");
+                            System.exit(64);
+                        }
+                        runs = Integer.parseInt(args[++i]);
+                        break;
+                    case "-P", "--launch-profile":
+                        startupProfileName = launchProfileName(args, i++);
+                        break;
+                    case "--":
+                        startupArgs = List.of(Arrays.copyOfRange(args, i + 1, args.length));
+                        i = args.length;
+                        break;
+                    default:
+                        System.err.println(STR."error: unknown startup option `\{args[i]}`");
+                        System.exit(64);
+                }
+            }
+            startup(runs, startupArgs, launchProfile(startupProfileName));
+            break;
+        case "stats":
+            if (args.length > 1 && !args[1].matches("[1-9][0-9]*")) {
+                System.err.println("error: `stats` takes the number of runs to look at");
+                System.exit(64);
             }
+            stats(args.length > 1 ? Integer.parseInt(args[1]) : 20);
             break;
         default:
             usage();
@@ -111,47 +281,479 @@ void newPackage(String path) {
     }
 }
 
-void test() {
-    // copy pasta
+boolean test(LaunchProfile profile, String runnerClass, Suite suite) {
     Package aPackage = extractProject(Paths.get(System.getProperty("user.dir"))).toPackage();
-    var jarPath = Paths.get("target", "jar", aPackage.getMainJarName());
-    var testerJar = Paths.get("..", "..", "cult", "target", "jar", "Tester-0.3.0.jar");
+    var classPath = testClassPath(aPackage);
+    if (classPath == null) {
+        return false;
+    }
+
+    // JVM options and environment need their own JVM, as does a native cult since it can't load classes
+    var inNativeImage = System.getProperty("org.graalvm.nativeimage.imagecode") != null;
+    if (inNativeImage || !profile.jvmArgs().isEmpty() || !profile.env().isEmpty()) {
+        try {
+            var args = new ArrayList<>(List.of("java", "--enable-preview"));
+            args.addAll(profile.javaOptions());
+            args.addAll(testRunnerCommand(runnerClass, classPath));
+            // failures are reported on stderr, which `run` would otherwise swallow
+            var processBuilder = profile.apply(new ProcessBuilder(args)).redirectError(ProcessBuilder.Redirect.INHERIT);
+            return run(processBuilder.start()) == 0;
+        } catch (IOException e) {
+            System.err.println("error: could not start `java` to run the tests");
+            System.err.println(e.getMessage());
+        } catch (InterruptedException e) {
+            System.err.println("error: process was interrupted");
+        }
+        return false;
+    }
+
+    var previous = new HashMap<String, String>();
+    profile.systemProperties().forEach((key, value) -> previous.put(key, System.setProperty(key, value)));
     try {
-        System.out.println("    running tests");
-        // XXX: remove this hardcoding
-        var process = new ProcessBuilder("java",
-                "--enable-preview",
-                "-jar", testerJar.toString(),
-                jarPath.toString()
-            ).start();
-        run(process);
-    // Copy pasta
+        return suite.run(classPath);
+    } catch (ClassNotFoundException e) {
+        System.err.println("error: could not find `Main` class");
+        System.err.println(e.getMessage());
+    } catch (ReflectiveOperationException e) {
+        System.err.println("error: could not run tests");
+        System.err.println(e.getMessage());
     } catch (IOException e) {
-        System.err.println(STR."error: could not find jar file at `\{testerJar}`");
-    } catch (InterruptedException e) {
-        System.err.println("error: process was interrupted");
+        System.err.println("error: could not load the compiled classes");
+        System.err.println(e.getMessage());
+    } finally {
+        previous.forEach((key, value) -> {
+            if (value == null) {
+                System.clearProperty(key);
+            } else {
+                System.setProperty(key, value);
+            }
+        });
+    }
+    return false;
+}
+
+// Class directories straight from the compiler plus the dependency jars, nothing needs to be jarred to test
+List<Path> testClassPath(Package aPackage) {
+    var classPath = new ArrayList<Path>();
+    classPath.add(Paths.get("target", STR."\{aPackage.name}-classes"));
+    classPath.add(Paths.get("target", "lib-classes"));
+    String[] binaries = Paths.get("src", "bin").toFile().list();
+    if (binaries != null) {
+        for (var binary : binaries) {
+            var binName = binary.substring(0, binary.lastIndexOf('.'));
+            classPath.add(Paths.get("target", STR."\{binName}-classes"));
+        }
+    }
+
+    var dependencies = extractDependencies().toDependencies();
+    if (dependencies == null) {
+        return null;
     }
+    for (var entry : dependencies.get().entrySet()) {
+        var libJarPath = entry.getValue().resolve(entry.getKey());
+        if (libJarPath.isEmpty()) {
+            return null;
+        }
+        classPath.add(libJarPath.get());
+    }
+    return classPath;
 }
 
-void run(List<String> argsToPass) {
+// The runner ships in the Cult library, which a project with tests already has as a dependency
+static List<String> testRunnerCommand(String runnerClass, List<Path> classPath) {
+    var entries = classPath.stream().map(Path::toString).toList();
+    var command = new ArrayList<>(List.of("-cp", String.join(File.pathSeparator, entries), runnerClass));
+    command.addAll(entries);
+    return command;
+}
+
+void run(List<String> argsToPass, String recording, LaunchProfile profile) {
     Package aPackage = extractProject(Paths.get(System.getProperty("user.dir"))).toPackage();
     var jarPath = Paths.get("target", "jar", aPackage.getMainJarName());
+    Path recordingPath = null;
     try {
         System.out.println(STR."        Running `\{jarPath}`");
-        var args = new ArrayList<>(List.of("java", "--enable-preview", "-jar", jarPath.toString()));
+        var args = new ArrayList<>(List.of("java", "--enable-preview"));
+        args.addAll(profile.javaOptions());
+        if (recording != null) {
+            var profilesDir = Paths.get("target", "profiles");
+            Files.createDirectories(profilesDir);
+            var timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+            recordingPath = profilesDir.resolve(STR."\{aPackage.name}-\{timestamp}-\{recording}.jfr");
+            args.add(STR."-XX:StartFlightRecording=filename=\{recordingPath},settings=profile,dumponexit=true");
+            args.add("-Xlog:jfr+startup=error");
+        }
+        args.addAll(List.of("-jar", jarPath.toString()));
         if (!argsToPass.isEmpty()) {
             args.addAll(argsToPass);
         }
-        var process = new ProcessBuilder(args).start();
+        var process = profile.apply(new ProcessBuilder(args)).start();
         run(process);
     } catch (IOException e) {
         System.err.println(STR."error: could not find jar file at `\{jarPath}`");
+        return;
     } catch (InterruptedException e) {
         System.err.println("error: process was interrupted");
+        return;
+    }
+
+    if (recordingPath != null) {
+        summarizeRecording(recordingPath, recording);
+    }
+}
+
+void summarizeRecording(Path recordingPath, String recording) {
+    // top method -> samples for cpu, sampled bytes for alloc; and per method, its line -> the same
+    var totals = new HashMap<String, Long>();
+    var lines = new HashMap<String, Map<Integer, Long>>();
+    var eventName = recording.equals("alloc") ? "jdk.ObjectAllocationSample" : "jdk.ExecutionSample";
+    // a long profiling run records a lot, so events are read one at a time rather than all at once
+    try (var file = new RecordingFile(recordingPath)) {
+        while (file.hasMoreEvents()) {
+            var event = file.readEvent();
+            if (!event.getEventType().getName().equals(eventName) || event.getStackTrace() == null) {
+                continue;
+            }
+            var frames = event.getStackTrace().getFrames();
+            if (frames.isEmpty()) {
+                continue;
+            }
+            var frame = frames.getFirst();
+            var method = frame.getMethod();
+            var site = STR."\{method.getType().getName()}.\{method.getName()}";
+            var weight = 1L;
+            if (recording.equals("alloc")) {
+                site = STR."\{event.getClass("objectClass").getName()} in \{site}";
+                weight = event.getLong("weight");
+            }
+            totals.merge(site, weight, Long::sum);
+            lines.computeIfAbsent(site, _ -> new HashMap<>()).merge(frame.getLineNumber(), weight, Long::sum);
+        }
+    } catch (IOException e) {
+        System.err.println(STR."error: could not read recording `\{recordingPath}`");
+        System.err.println(e.getMessage());
+        return;
+    }
+
+    System.out.println(STR."      Profile `\{recordingPath}`");
+    var total = totals.values().stream().mapToLong(Long::longValue).sum();
+    if (total == 0) {
+        System.out.println("        no samples recorded");
+        return;
+    }
+    totals.entrySet().stream()
+            .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+            .limit(10)
+            .forEach(entry -> {
+                var share = 100f * entry.getValue() / total;
+                // the hottest line of the method, as a pointer to where to look
+                var line = lines.get(entry.getKey()).entrySet().stream()
+                        .max(Map.Entry.comparingByValue()).map(Map.Entry::getKey).orElse(-1);
+                if (recording.equals("alloc")) {
+                    System.out.printf("      %5.1f%% %10.1fKiB  %s (mostly line %d)%n",
+                            share, entry.getValue() / 1024f, entry.getKey(), line);
+                } else {
+                    System.out.printf("      %5.1f%% %10d  %s (mostly line %d)%n",
+                            share, entry.getValue(), entry.getKey(), line);
+                }
+            });
+}
+
+private static final double STATS_REGRESSION = 1.2;
+private static final long STATS_NOISE_MS = 100;
+private static final long STATS_NOISE_BYTES = 1024 * 1024;
+
+// Summarises the last successful runs of each command from the telemetry log. The latest run is compared with the
+// median of the ones before it, so a single slow run is flagged without one outlier skewing the baseline.
+void stats(int last) {
+    if (!Files.exists(Telemetry.LOG)) {
+        System.err.println(STR."error: no telemetry yet, `\{Telemetry.LOG}` is written by build, test and bench");
+        return;
+    }
+
+    // command -> runs, oldest first
+    var runs = new TreeMap<String, List<Map<String, Long>>>();
+    var failures = new HashMap<String, Integer>();
+    try {
+        for (var line : Files.readAllLines(Telemetry.LOG)) {
+            var split = line.split(" ");
+            if (split.length < 3) {
+                continue;
+            }
+            if (!split[2].equals("ok")) {
+                failures.merge(split[1], 1, Integer::sum);
+                continue;
+            }
+            var run = new HashMap<String, Long>();
+            for (var i = 3; i < split.length; i++) {
+                var pair = split[i].split("=", 2);
+                if (pair.length == 2 && pair[1].matches("-?[0-9]+")) {
+                    run.put(pair[0], Long.parseLong(pair[1]));
+                }
+            }
+            runs.computeIfAbsent(split[1], _ -> new ArrayList<>()).add(run);
+        }
+    } catch (IOException e) {
+        System.err.println(STR."error: could not read `\{Telemetry.LOG}`");
+        System.err.println(e.getMessage());
+        return;
+    }
+
+    for (var entry : runs.entrySet()) {
+        var all = entry.getValue();
+        var window = all.subList(Math.max(0, all.size() - last), all.size());
+        var failed = failures.getOrDefault(entry.getKey(), 0);
+        System.out.println(STR."    \{entry.getKey()}: last \{window.size()} of \{all.size()} ok runs, \{failed} failed");
+
+        var keys = new TreeSet<String>();
+        window.forEach(run -> keys.addAll(run.keySet()));
+        for (var key : keys) {
+            if (key.startsWith("cache.")) {
+                continue;
+            }
+            var series = window.stream().filter(run -> run.containsKey(key)).map(run -> run.get(key)).toList();
+            var latest = series.getLast();
+            if (series.size() < 2) {
+                System.out.printf("      %-20s  latest %10s%n", key, formatStat(key, latest));
+                continue;
+            }
+            var previous = new ArrayList<>(series.subList(0, series.size() - 1));
+            Collections.sort(previous);
+            var median = previous.get(previous.size() / 2);
+            var change = median == 0 ? 0 : 100.0 * (latest - median) / median;
+            System.out.printf("      %-20s  median %10s  latest %10s  %+5.0f%%%n",
+                    key, formatStat(key, median), formatStat(key, latest), change);
+            var noise = key.startsWith("bytes.") || key.startsWith("memory.") ? STATS_NOISE_BYTES : STATS_NOISE_MS;
+            if (latest > median * STATS_REGRESSION && latest - median > noise) {
+                var before = formatStat(key, median);
+                var after = formatStat(key, latest);
+                System.err.println(STR."warning: `\{entry.getKey()}` regressed in \{key}: \{before} -> \{after}");
+            }
+        }
+
+        var caches = keys.stream().filter(key -> key.startsWith("cache."))
+                .map(key -> key.substring(0, key.lastIndexOf('.'))).distinct().toList();
+        for (var cache : caches) {
+            var hits = window.stream().mapToLong(run -> run.getOrDefault(STR."\{cache}.hit", 0L)).sum();
+            var misses = window.stream().mapToLong(run -> run.getOrDefault(STR."\{cache}.miss", 0L)).sum();
+            var rate = hits + misses == 0 ? 0 : 100.0 * hits / (hits + misses);
+            System.out.printf("      %-20s  %d hits, %d misses (%.0f%% hit rate)%n", cache, hits, misses, rate);
+        }
     }
 }
 
+private static String formatStat(String key, long value) {
+    if (key.startsWith("bytes.") || key.startsWith("memory.")) {
+        return String.format("%.1fMiB", value / 1048576.0);
+    }
+    return String.format("%.2fs", value / 1000.0);
+}
+
+private static final Path STARTUP_HISTORY = Paths.get(".cult", "startup.tsv");
+
+// Launches every artifact that has already been built a number of times and reports how long each takes to get going.
+// Time to main is taken as the time to the first byte on stdout, the closest an outside observer gets to it.
+void startup(int runs, List<String> argsToPass, LaunchProfile profile) {
+    var aPackage = extractProject(Paths.get(System.getProperty("user.dir"))).toPackage();
+    if (aPackage == null) {
+        return;
+    }
+
+    var launches = startupLaunches(aPackage, profile);
+    if (launches.isEmpty()) {
+        System.err.println("error: nothing to launch, build a jar, native-image or runtime image first");
+        return;
+    }
+
+    var version = aPackage.semver();
+    var history = readStartupHistory(version);
+    var rows = new LinkedHashMap<String, List<Long>>();
+    for (var launch : launches.entrySet()) {
+        var kind = launch.getKey();
+        var command = new ArrayList<>(launch.getValue());
+        command.addAll(argsToPass);
+        var main = new Histogram();
+        var exit = new Histogram();
+        var rss = new Histogram();
+        try {
+            // the first launch warms the page cache and writes the CDS archive, so it isn't counted
+            var warmup = launchOnce(command, profile);
+            if (warmup.exitCode() != 0) {
+                System.err.println(STR."warning: `\{kind}` exited with value: \{warmup.exitCode()}");
+            }
+            for (var i = 0; i < runs; i++) {
+                var sample = launchOnce(command, profile);
+                main.record(sample.mainNanos());
+                exit.record(sample.exitNanos());
+                if (sample.peakRssBytes() >= 0) {
+                    rss.record(sample.peakRssBytes());
+                }
+            }
+        } catch (IOException|InterruptedException e) {
+            System.err.println(STR."error: could not launch `\{command.getFirst()}` for `\{kind}`");
+            System.err.println(e.getMessage());
+            continue;
+        }
+
+        var row = List.of(main.percentile(50), main.percentile(90), exit.percentile(50), exit.percentile(90),
+                rss.count() == 0 ? -1 : rss.percentile(50));
+        var comparison = "";
+        var previous = history.get(kind);
+        if (previous != null) {
+            var before = previous.getValue().get(2);
+            var change = before == 0 ? 0 : 100.0 * (row.get(2) - before) / before;
+            comparison = String.format("%+.0f%% vs %s", change, previous.getKey());
+        }
+        System.out.printf("    %-8s  main p50 %9s p90 %9s  exit p50 %9s p90 %9s  rss %9s  %s%n", kind,
+                formatMillis(row.get(0)), formatMillis(row.get(1)), formatMillis(row.get(2)),
+                formatMillis(row.get(3)), row.get(4) < 0 ? "-" : String.format("%.1fMiB", row.get(4) / 1048576.0),
+                comparison);
+        rows.put(kind, row);
+    }
+    writeStartupHistory(version, rows);
+}
+
+// artifact kind -> command that launches it
+private LinkedHashMap<String, List<String>> startupLaunches(Package aPackage, LaunchProfile profile) {
+    var launches = new LinkedHashMap<String, List<String>>();
+    var jarPath = Paths.get("target", "jar", aPackage.getMainJarName());
+    if (Files.exists(jarPath)) {
+        // thin and fat jars share a name; only a thin jar points at its dependencies
+        String kind;
+        try (var jar = new JarFile(jarPath.toFile())) {
+            var manifest = jar.getManifest();
+            var thin = manifest != null && manifest.getMainAttributes().getValue("Class-Path") != null;
+            kind = thin ? "jar" : "fat";
+        } catch (IOException e) {
+            System.err.println(STR."warning: skipping unreadable jar `\{jarPath}`");
+            kind = null;
+        }
+        if (kind != null) {
+            var java = new ArrayList<>(List.of("java", "--enable-preview"));
+            java.addAll(profile.javaOptions());
+            var withCds = new ArrayList<>(java);
+            var archive = Paths.get("target", "startup", STR."\{aPackage.name}-\{kind}.jsa");
+            withCds.addAll(List.of(STR."-XX:SharedArchiveFile=\{archive}", "-XX:+AutoCreateSharedArchive"));
+            java.addAll(List.of("-jar", jarPath.toString()));
+            withCds.addAll(List.of("-jar", jarPath.toString()));
+            launches.put(kind, java);
+            launches.put(STR."\{kind}+cds", withCds);
+            createDir(archive.getParent());
+        }
+    }
+    var nativePath = Paths.get("target", "native", STR."\{aPackage.name}-\{aPackage.semver()}");
+    if (Files.isExecutable(nativePath)) {
+        var command = new ArrayList<>(List.of(nativePath.toString()));
+        command.addAll(profile.nativeRunOptions());
+        launches.put("native", command);
+    }
+    var launcher = Paths.get("target", "image", "bin", aPackage.name);
+    if (Files.isExecutable(launcher)) {
+        launches.put("image", List.of(launcher.toString()));
+    }
+    return launches;
+}
+
+private static StartupSample launchOnce(List<String> command, LaunchProfile profile)
+        throws IOException, InterruptedException {
+    var builder = profile.apply(new ProcessBuilder(command)).redirectError(ProcessBuilder.Redirect.DISCARD);
+    var started = System.nanoTime();
+    var process = builder.start();
+    process.getOutputStream().close();
+
+    // VmHWM is the peak resident set size, only readable while the process is still running
+    var peakRss = new AtomicLong(-1);
+    var status = Paths.get("/proc", String.valueOf(process.pid()), "status");
+    var watcher = Thread.ofVirtual().start(() -> {
+        while (process.isAlive()) {
+            peakRss.accumulateAndGet(highWaterMark(status), Math::max);
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    });
+
+    var firstOutput = -1L;
+    try (var output = process.getInputStream()) {
+        if (output.read() != -1) {
+            firstOutput = System.nanoTime() - started;
+        }
+        output.transferTo(OutputStream.nullOutputStream());
+    }
+    var exitCode = process.waitFor();
+    var exited = System.nanoTime() - started;
+    watcher.join();
+    return new StartupSample(firstOutput < 0 ? exited : firstOutput, exited, peakRss.get(), exitCode);
+}
+
+private static long highWaterMark(Path status) {
+    try {
+        for (var line : Files.readAllLines(status)) {
+            if (line.startsWith("VmHWM:")) {
+                return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+            }
+        }
+    } catch (IOException|NumberFormatException e) {
+        // gone already, or not on Linux
+    }
+    return -1;
+}
+
+// artifact kind -> the latest other version it was measured at and its numbers
+private static Map<String, Map.Entry<String, List<Long>>> readStartupHistory(String version) {
+    var history = new HashMap<String, Map.Entry<String, List<Long>>>();
+    if (!Files.exists(STARTUP_HISTORY)) {
+        return history;
+    }
+    try {
+        for (var line : Files.readAllLines(STARTUP_HISTORY)) {
+            var split = line.split("\t");
+            if (split.length == 7 && !split[0].equals(version)) {
+                var numbers = Arrays.stream(split, 2, 7).map(Long::parseLong).toList();
+                history.put(split[1], Map.entry(split[0], numbers));
+            }
+        }
+    } catch (IOException|NumberFormatException e) {
+        System.err.println(STR."warning: ignoring unreadable startup history `\{STARTUP_HISTORY}`");
+    }
+    return history;
+}
+
+// One line per version and artifact kind, oldest first, so the last line for a kind is its latest measurement
+private static void writeStartupHistory(String version, Map<String, List<Long>> rows) {
+    try {
+        var kept = new ArrayList<String>();
+        if (Files.exists(STARTUP_HISTORY)) {
+            for (var line : Files.readAllLines(STARTUP_HISTORY)) {
+                var split = line.split("\t");
+                if (split.length < 2 || !split[0].equals(version) || !rows.containsKey(split[1])) {
+                    kept.add(line);
+                }
+            }
+        }
+        rows.forEach((kind, row) -> {
+            var numbers = String.join("\t", row.stream().map(String::valueOf).toList());
+            kept.add(STR."\{version}\t\{kind}\t\{numbers}");
+        });
+        Files.createDirectories(STARTUP_HISTORY.getParent());
+        Files.write(STARTUP_HISTORY, kept);
+    } catch (IOException e) {
+        System.err.println(STR."warning: could not write startup history `\{STARTUP_HISTORY}`");
+    }
+}
+
+private static String formatMillis(long nanos) {
+    return String.format("%.1fms", nanos / 1_000_000.0);
+}
+
 Result build(Artifact artifact) {
+    return build(BuildOptions.of(artifact));
+}
+
+Result build(BuildOptions options) {
+    var artifact = options.artifact();
     var start = System.currentTimeMillis();
     var result = extractProject(Paths.get(System.getProperty("user.dir")));
     var aPackage = result.toPackage();
@@ -168,7 +770,9 @@ Result build(Artifact artifact) {
         return result;
     }
 
-    result = fetch(dependencies);
+    var phase = System.nanoTime();
+    result = fetch(dependencies, options.offline(), false);
+    Telemetry.phase("fetch", phase);
     var jars = result.toJars();
     if (jars == null) {
         return result;
@@ -181,24 +785,37 @@ Result build(Artifact artifact) {
     }
 
     var libBundle = new LibBundle(aPackage, jars, libs);
-    result = compile(libBundle);
+    phase = System.nanoTime();
+    result = compileLib(libBundle);
+    Telemetry.phase("compile-lib", phase);
     if (!result.isOk()) {
         return result;
     }
 
-    if (!libBundle.getSource().isEmpty()) {
+    if (!libBundle.getSource().isEmpty() && artifact != Artifact.CLASSES) {
+        phase = System.nanoTime();
         result = jarLib(aPackage);
+        Telemetry.phase("jar", phase);
         if (!result.isOk()) {
             return result;
         }
     }
 
     var mainBundle = new BinBundle(Paths.get("src", "Main.java"), aPackage, jars);
+    phase = System.nanoTime();
     result = compile(mainBundle);
+    Telemetry.phase("compile", phase);
     if (!result.isOk()) {
         return result;
     }
 
+    if (artifact == Artifact.LAYERED) {
+        result = clearLayers();
+        if (!result.isOk()) {
+            return result;
+        }
+    }
+
     Path binDirPath = Paths.get("src", "bin");
     var binDir = binDirPath.toFile();
     String[] binaries = binDir.list();
@@ -209,19 +826,43 @@ Result build(Artifact artifact) {
             var binName = binNameWithExtension.substring(0, binNameWithExtension.lastIndexOf('.'));
             var binPackage = new Package(binName, aPackage.version);
             var binBundle = new BinBundle(binPath, binPackage, jars);
+            phase = System.nanoTime();
             result = compile(binBundle);
+            Telemetry.phase("compile", phase);
             if (!result.isOk()) {
                 return result;
             }
 
-            jar(binPackage, binName, jars, artifact);
+            if (artifact != Artifact.CLASSES) {
+                phase = System.nanoTime();
+                jar(binPackage, binName, jars, options);
+                Telemetry.phase("jar", phase);
+            }
         }
     }
 
-    result = jar(aPackage, "Main", jars, artifact);
+    if (artifact != Artifact.CLASSES) {
+        phase = System.nanoTime();
+        result = jar(aPackage, "Main", jars, options);
+        Telemetry.phase("jar", phase);
+    }
+
+    if (result.isOk() && artifact == Artifact.LAYERED) {
+        phase = System.nanoTime();
+        result = writeLayers(jars);
+        Telemetry.phase("layers", phase);
+    }
 
     if (result.isOk() && artifact == Artifact.NATIVE) {
-        result = buildNativeImage(aPackage);
+        phase = System.nanoTime();
+        result = buildNativeImage(aPackage, options);
+        Telemetry.phase("native", phase);
+    }
+
+    if (result.isOk() && artifact == Artifact.IMAGE) {
+        phase = System.nanoTime();
+        result = buildRuntimeImage(aPackage, jars, options);
+        Telemetry.phase("image", phase);
     }
 
     var end = System.currentTimeMillis();
@@ -234,25 +875,77 @@ Result build(Artifact artifact) {
     return result;
 }
 
-private Result buildNativeImage(Package aPackage) {
-    var pathToJar = Paths.get(
-            "target",
-            "jar",
-            aPackage.getMainJarName()
-    ).toString();
-    var nativeImage = new ProcessBuilder(
-            "native-image",
-            "--enable-preview",
-            "-jar",
-            pathToJar
-    );
+private Result buildNativeImage(Package aPackage, BuildOptions options) {
+    var result = extractSection(Paths.get("."), "native");
+    var settings = result.toSettings();
+    if (settings == null) {
+        return result;
+    }
+
+    var nativeDir = Paths.get("target", "native");
+    result = createDir(nativeDir);
+    if (!result.isOk()) {
+        return result;
+    }
+
+    var pathToJar = Paths.get("target", "jar", aPackage.getMainJarName());
+    var configDir = nativeDir.resolve("config");
+    if (options.trace() != null) {
+        result = traceNativeConfig(aPackage, pathToJar, configDir, options);
+        if (!result.isOk()) {
+            return result;
+        }
+    }
+
+    var imagePath = nativeDir.resolve(STR."\{aPackage.name}-\{aPackage.semver()}");
+    var command = new ArrayList<>(List.of("native-image", "--enable-preview"));
+    settings.get("parallelism").ifPresent(parallelism -> command.add(STR."--parallelism=\{parallelism}"));
+    settings.get("memory").ifPresent(memory -> command.add(STR."-J-Xmx\{memory}"));
+    command.addAll(settings.list("args"));
+    command.addAll(options.profile().nativeOptions());
+    if (Files.isDirectory(configDir)) {
+        command.add(STR."-H:ConfigurationFileDirectories=\{configDir}");
+    }
+    Path profileStamp = null;
+    if (options.pgo()) {
+        var profilePath = collectProfile(aPackage, settings, command, configDir, options);
+        if (profilePath == null) {
+            return new Result(null);
+        }
+        command.add(STR."--pgo=\{profilePath}");
+        profileStamp = profileStampPath(profilePath);
+    }
+    command.addAll(List.of("-jar", pathToJar.toString(), "-o", imagePath.toString()));
+
+    var stampPath = nativeDir.resolve(STR."\{imagePath.getFileName()}.sha256");
+    String hash;
+    try {
+        // the profile can change while the code doesn't, e.g. with other workload args
+        var hashed = new ArrayList<>(command);
+        if (profileStamp != null) {
+            hashed.add(Files.readString(profileStamp));
+        }
+        hash = contentHash(pathToJar, hashed, configDir);
+        if (Files.exists(imagePath) && Files.exists(stampPath) && Files.readString(stampPath).equals(hash)) {
+            System.out.println(STR."       Fresh native-image `\{imagePath}`");
+            Telemetry.add("cache.native.hit", 1);
+            return new Result(new Ok());
+        }
+        Telemetry.add("cache.native.miss", 1);
+    } catch (IOException e) {
+        System.err.println(STR."error: could not hash jar file `\{pathToJar}`");
+        System.err.println(e.getMessage());
+        return new Result(null);
+    }
+
     try {
-        var exitCode = run(nativeImage.start());
+        var exitCode = run(options.profile().apply(new ProcessBuilder(command)).start());
         if (exitCode != 0) {
             System.err.println("error: could not build native-image");
             System.err.println(STR."exit code: \{exitCode}");
             return new Result(null);
         }
+        Files.writeString(stampPath, hash);
         return new Result(new Ok());
     } catch (IOException|InterruptedException e) {
         System.err.println("error: could not build native-image");
@@ -261,6 +954,251 @@ private Result buildNativeImage(Package aPackage) {
     }
 }
 
+// Builds an instrumented image of the workload, runs it and keeps the profile it dumps for as long as the code, the
+// native-image options and the workload args stay the same
+private Path collectProfile(Package aPackage, Settings settings, List<String> command, Path configDir,
+                            BuildOptions options) {
+    try {
+        if (!capture(List.of("native-image", "--help")).contains("--pgo")) {
+            System.err.println("error: `--pgo` is not supported by this native-image, it needs Oracle GraalVM");
+            return null;
+        }
+    } catch (IOException|InterruptedException e) {
+        System.err.println("error: could not run native-image");
+        System.err.println(e.getMessage());
+        return null;
+    }
+
+    var workload = settings.get("pgo-workload").map(name -> new Package(name, aPackage.version)).orElse(aPackage);
+    var workloadJar = Paths.get("target", "jar", workload.getMainJarName());
+    if (!Files.exists(workloadJar)) {
+        System.err.println(STR."error: pgo workload `\{workload.name}` is not a binary in `src/bin`");
+        return null;
+    }
+
+    var pgoDir = Paths.get("target", "native", "pgo");
+    var profilePath = pgoDir.resolve(STR."\{aPackage.name}.iprof");
+    var stampPath = profileStampPath(profilePath);
+    var instrumentedPath = pgoDir.resolve(STR."\{workload.name}-instrumented");
+    var workloadArgs = settings.list("pgo-args");
+    var instrument = new ArrayList<>(command);
+    instrument.addAll(List.of("--pgo-instrument", "-jar", workloadJar.toString(), "-o", instrumentedPath.toString()));
+
+    try {
+        Files.createDirectories(pgoDir);
+        var hashed = new ArrayList<>(instrument);
+        hashed.addAll(workloadArgs);
+        var hash = contentHash(workloadJar, hashed, configDir);
+        if (Files.exists(profilePath) && Files.exists(stampPath) && Files.readString(stampPath).equals(hash)) {
+            System.out.println(STR."       Fresh profile `\{profilePath}`");
+            Telemetry.add("cache.pgo.hit", 1);
+            return profilePath;
+        }
+        Telemetry.add("cache.pgo.miss", 1);
+
+        System.out.println(STR."  Instrumenting `\{workloadJar}`");
+        var exitCode = run(options.profile().apply(new ProcessBuilder(instrument)).start());
+        if (exitCode != 0) {
+            System.err.println("error: could not build instrumented native-image");
+            System.err.println(STR."exit code: \{exitCode}");
+            return null;
+        }
+
+        Files.deleteIfExists(profilePath);
+        var workloadCommand = new ArrayList<>(List.of(
+                instrumentedPath.toString(), STR."-XX:ProfilesDumpFile=\{profilePath}"));
+        workloadCommand.addAll(options.profile().nativeRunOptions());
+        workloadCommand.addAll(workloadArgs);
+        System.out.println(STR."     Profiling `\{instrumentedPath}` into `\{profilePath}`");
+        exitCode = run(options.profile().apply(new ProcessBuilder(workloadCommand)).start(), false);
+        if (exitCode != 0 || !Files.exists(profilePath)) {
+            System.err.println("error: profiling run failed");
+            System.err.println(STR."exit code: \{exitCode}");
+            return null;
+        }
+        Files.writeString(stampPath, hash);
+        return profilePath;
+    } catch (IOException|InterruptedException e) {
+        System.err.println("error: could not collect a native-image profile");
+        System.err.println(e.getMessage());
+        return null;
+    }
+}
+
+private static Path profileStampPath(Path profilePath) {
+    return profilePath.resolveSibling(STR."\{profilePath.getFileName()}.sha256");
+}
+
+// Runs the app, or the tests, under the tracing agent so reflection and resource use ends up in the native config
+private Result traceNativeConfig(Package aPackage, Path pathToJar, Path configDir, BuildOptions options) {
+    var agent = STR."-agentlib:native-image-agent=config-merge-dir=\{configDir}";
+    var command = new ArrayList<>(List.of("java", "--enable-preview", agent));
+    command.addAll(options.profile().javaOptions());
+    if (options.trace().equals("test")) {
+        var classPath = testClassPath(aPackage);
+        if (classPath == null) {
+            return new Result(null);
+        }
+        command.addAll(testRunnerCommand("org.cult.TestRunner", classPath));
+    } else {
+        command.addAll(List.of("-jar", pathToJar.toString()));
+        command.addAll(options.traceArgs());
+    }
+
+    try {
+        System.out.println(STR."     Tracing `\{pathToJar}` into `\{configDir}`");
+        var exitCode = run(options.profile().apply(new ProcessBuilder(command)).start());
+        if (exitCode != 0) {
+            System.err.println("error: tracing run failed");
+            System.err.println(STR."exit code: \{exitCode}");
+            return new Result(null);
+        }
+        return new Result(new Ok());
+    } catch (IOException|InterruptedException e) {
+        System.err.println("error: could not run the tracing agent");
+        System.err.println(e.getMessage());
+        return new Result(null);
+    }
+}
+
+// Hashes jar entries rather than the jar file, since every build stamps new entry times
+static String contentHash(Path pathToJar, List<String> command, Path configDir) throws IOException {
+    MessageDigest digest;
+    try {
+        digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+        throw new IOException(e);
+    }
+
+    try (var jar = new JarFile(pathToJar.toFile())) {
+        var entries = jar.stream().filter(entry -> !entry.isDirectory())
+                .sorted(Comparator.comparing(JarEntry::getName))
+                .toList();
+        for (var entry : entries) {
+            digest.update(entry.getName().getBytes());
+            try (var input = jar.getInputStream(entry)) {
+                digest.update(input.readAllBytes());
+            }
+        }
+    }
+    digest.update(String.join(" ", command).getBytes());
+    if (Files.isDirectory(configDir)) {
+        try (var configs = Files.walk(configDir)) {
+            for (var config : configs.filter(Files::isRegularFile).sorted().toList()) {
+                digest.update(config.toString().getBytes());
+                digest.update(Files.readAllBytes(config));
+            }
+        }
+    }
+    return HexFormat.of().formatHex(digest.digest());
+}
+
+// A jlink runtime with only the modules jdeps finds in use, plus the app jars and a launcher script
+private Result buildRuntimeImage(Package aPackage, Jars dependencies, BuildOptions options) {
+    var jarDir = Paths.get("target", "jar");
+    var appJars = new ArrayList<Path>();
+    appJars.add(jarDir.resolve(aPackage.getMainJarName()));
+    if (Files.exists(jarDir.resolve(aPackage.getLibJarName()))) {
+        appJars.add(jarDir.resolve(aPackage.getLibJarName()));
+    }
+    dependencies.libs().forEach(lib -> appJars.add(lib.path));
+
+    var imageDir = Paths.get("target", "image");
+    var appDir = imageDir.resolve("app");
+    var modulesPath = imageDir.resolve("modules.txt");
+    try {
+        var jdeps = new ArrayList<>(List.of("jdeps", "--print-module-deps", "--ignore-missing-deps",
+                "--multi-release", String.valueOf(Runtime.version().feature())));
+        appJars.forEach(jar -> jdeps.add(jar.toString()));
+        var modules = capture(jdeps).trim();
+        if (modules.isEmpty()) {
+            System.err.println("error: jdeps did not report any modules");
+            return new Result(null);
+        }
+
+        if (Files.exists(modulesPath) && Files.readString(modulesPath).equals(modules)) {
+            System.out.println(STR."       Fresh runtime `\{imageDir}` (\{modules})");
+            Telemetry.add("cache.jlink.hit", 1);
+        } else {
+            System.out.println(STR."     Linking runtime `\{imageDir}` (\{modules})");
+            Telemetry.add("cache.jlink.miss", 1);
+            deleteRecursively(imageDir);
+            // the CDS plugin is chatty about classes from modules that were left out, so only keep stderr
+            capture(List.of(
+                    "jlink",
+                    "--add-modules", modules,
+                    "--output", imageDir.toString(),
+                    "--strip-debug",
+                    "--no-header-files",
+                    "--no-man-pages",
+                    "--generate-cds-archive"
+            ));
+            Files.writeString(modulesPath, modules);
+        }
+
+        deleteRecursively(appDir);
+        Files.createDirectories(appDir);
+        var classPath = new ArrayList<String>();
+        var index = new TreeMap<String, List<String>>();
+        for (var jar : appJars) {
+            var jarName = jar.getFileName().toString();
+            Files.copy(jar, appDir.resolve(jarName));
+            classPath.add(STR."$DIR/app/\{jarName}");
+            for (var pkg : packagesIn(jar)) {
+                index.computeIfAbsent(pkg, _ -> new ArrayList<>()).add(jarName);
+            }
+        }
+
+        var lines = new ArrayList<String>();
+        for (var entry : index.entrySet()) {
+            lines.add(STR."\{entry.getKey()} \{String.join(" ", entry.getValue())}");
+            if (entry.getValue().size() > 1) {
+                System.err.println(STR."warning: package `\{entry.getKey()}` is split across \{entry.getValue()}");
+            }
+        }
+        Files.write(appDir.resolve("packages.idx"), lines);
+
+        var javaOptions = new ArrayList<>(List.of("--enable-preview",
+                STR."-XX:SharedArchiveFile=\"$DIR/app/\{aPackage.name}.jsa\"", "-XX:+AutoCreateSharedArchive"));
+        options.profile().javaOptions().forEach(option -> javaOptions.add(STR."'\{option}'"));
+        var launcher = imageDir.resolve("bin").resolve(aPackage.name);
+        Files.writeString(launcher, STR."""
+                #!/bin/sh
+                DIR="$(cd "$(dirname "$0")/.." && pwd)"
+                exec "$DIR/bin/java" \{String.join(" ", javaOptions)} -cp "\{String.join(":", classPath)}" Main "$@"
+                """);
+        launcher.toFile().setExecutable(true);
+        System.out.println(STR."     Launcher `\{launcher}`");
+    } catch (IOException | InterruptedException e) {
+        System.err.println("error: could not build runtime image");
+        System.err.println(e.getMessage());
+        return new Result(null);
+    }
+    return new Result(new Ok());
+}
+
+static Set<String> packagesIn(Path jarPath) throws IOException {
+    try (var jar = new JarFile(jarPath.toFile())) {
+        return jar.stream()
+                .map(entry -> className(entry.getName()))
+                .filter(Objects::nonNull)
+                .map(className -> packageOf(className).replace('/', '.'))
+                .filter(pkg -> !pkg.isEmpty())
+                .collect(Collectors.toCollection(TreeSet::new));
+    }
+}
+
+private static void deleteRecursively(Path root) throws IOException {
+    if (!Files.exists(root)) {
+        return;
+    }
+    try (var paths = Files.walk(root)) {
+        for (var path : paths.sorted(Comparator.reverseOrder()).toList()) {
+            Files.delete(path);
+        }
+    }
+}
+
 Result findLibs() {
     var srcBin = Paths.get("src", "bin");
     var src = Paths.get("src");
@@ -367,7 +1305,60 @@ Result extractDependencies() {
     }
 }
 
-Result fetch(Dependencies dependencies) {
+static Result extractSection(Path root, String section) {
+    var header = STR."[\{section}]";
+    var inSection = false;
+    var values = new LinkedHashMap<String, String>();
+    try {
+        for (String line : Files.readAllLines(root.resolve("Cult.toml"))) {
+            var trimmed = line.trim();
+            if (trimmed.startsWith("[") && trimmed.endsWith("]")) {
+                inSection = trimmed.equals(header);
+                continue;
+            }
+
+            var split = line.split("=", 2);
+            if (inSection && split.length == 2 && !trimmed.startsWith("#")) {
+                values.put(split[0].replace("\"", "").trim(), split[1].trim());
+            }
+        }
+    } catch (IOException e) {
+        System.err.println(STR."error: could not find `Cult.toml` in `\{root}`");
+        return new Result(null);
+    }
+    return new Result(new Settings(values));
+}
+
+// The NAME after `-P/--launch-profile` at `args[i]`; `--profile` is left to JFR recordings on `run`
+static String launchProfileName(String[] args, int i) {
+    if (i + 1 >= args.length) {
+        System.err.println("error: missing <NAME> for `--launch-profile`");
+        System.exit(64);
+    }
+    return args[i + 1];
+}
+
+// Exits like an unknown option would, since nothing can be launched with a profile that doesn't exist
+static LaunchProfile launchProfile(String name) {
+    var section = STR."profile.\{name == null ? "default" : name}";
+    var settings = extractSection(Paths.get("."), section).toSettings();
+    if (settings == null) {
+        System.exit(64);
+    }
+    if (name != null && settings.values().isEmpty()) {
+        System.err.println(STR."error: no `[\{section}]` section in `Cult.toml`");
+        System.exit(64);
+    }
+    return new LaunchProfile(
+            settings.list("jvm-args"),
+            settings.list("native-args"),
+            settings.table("system-properties"),
+            settings.table("env")
+    );
+}
+
+// Downloads whatever is missing all at once; `verify` also re-checks jars that are already there against their checksum
+Result fetch(Dependencies dependencies, boolean offline, boolean verify) {
     var paths = new ArrayList<LibInfo>();
     Path libDir = Paths.get("target", "lib");
     var result = createDir(libDir);
@@ -375,23 +1366,52 @@ Result fetch(Dependencies dependencies) {
         return result;
     }
 
+    var missing = new LinkedHashMap<ModuleId, Path>();
     for (var entry : dependencies.get().entrySet()) {
         var module = entry.getKey();
         var dependency = entry.getValue();
         var libJarPath = dependency.resolve(module);
-        if (libJarPath.isPresent() && libJarPath.get().toFile().exists()) {
-            paths.add(new LibInfo(libJarPath.get(), false));
-        } else if (libJarPath.isEmpty()) {
+        if (libJarPath.isEmpty()) {
             return new Result(null);
-        } else {
-            result = dependency.fetch(module, libJarPath.get());
-            if (result.isOk()) {
-                paths.add(new LibInfo(libJarPath.get(), false));
-            } else {
-                return new Result(null);
-            }
+        }
+        paths.add(new LibInfo(libJarPath.get(), false));
+        var present = libJarPath.get().toFile().exists();
+        if (!present || (verify && !dependency.verify(libJarPath.get()))) {
+            missing.put(module, libJarPath.get());
         }
     }
+
+    Telemetry.add("cache.fetch.hit", paths.size() - missing.size());
+    Telemetry.add("cache.fetch.miss", missing.size());
+    if (offline && !missing.isEmpty()) {
+        for (var libJarPath : missing.values()) {
+            System.err.println(STR."error: `\{libJarPath}` is not available offline, run `cult fetch` first");
+        }
+        return new Result(null);
+    }
+
+    var fetched = true;
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+        var fetches = new ArrayList<Future<Result>>();
+        for (var entry : missing.entrySet()) {
+            var dependency = dependencies.get().get(entry.getKey());
+            System.out.println(STR."    Downloading `\{entry.getValue().getFileName()}`");
+            fetches.add(executor.submit(() -> dependency.fetch(entry.getKey(), entry.getValue())));
+        }
+        for (var fetch : fetches) {
+            fetched &= fetch.get().isOk();
+        }
+    } catch (InterruptedException | ExecutionException e) {
+        System.err.println("error: could not fetch dependencies");
+        System.err.println(e.getMessage());
+        return new Result(null);
+    }
+    if (!fetched) {
+        return new Result(null);
+    }
+    if (verify) {
+        System.out.println(STR."     Fetched \{missing.size()}, \{paths.size() - missing.size()} already up to date");
+    }
     return new Result(new Jars(paths));
 }
 
@@ -401,46 +1421,362 @@ Result compile(Bundle bundle) {
     }
 
     try {
-        var sourcePaths = bundle.getSource().stream().map(Path::toString).toList();
-
-        // Using Process API instead of ToolProvider.getSystemJavaCompiler() because aspire to build a native image
-        var javac = new ProcessBuilder(
-                "javac",
-                "--enable-preview",
-                "--source", "22",
-                "-cp", bundle.getClasspath(),
-                "-d", bundle.outLocation()
-        );
-        javac.command().addAll(sourcePaths);
+        var javac = javac(bundle, bundle.getClasspath(), bundle.outLocation(), bundle.getSource());
         var process = javac.start();
         int exit = run(process);
         if (exit != 0) {
             System.err.println("error: failed to compile");
             return new Result(null);
         }
+        Telemetry.add("bytes.compiled", sourceBytes(bundle.getSource()));
     } catch (InterruptedException | IOException e) {
         System.err.println("error: failed to compile");
         System.err.println(e.getMessage());
         return new Result(null);
     }
-    return new Result(new Ok());
+    return new Result(new Ok());
+}
+
+private static ProcessBuilder javac(Bundle bundle, String classpath, String outLocation, List<Path> sources) {
+    // Using Process API instead of ToolProvider.getSystemJavaCompiler() because aspire to build a native image
+    var javac = new ProcessBuilder(
+            "javac",
+            "--enable-preview",
+            "--source", "22",
+            "-cp", classpath,
+            "-d", outLocation
+    );
+    // the processor is compiled with preview features too, so javac's own JVM has to allow them. Naming it switches
+    // javac's processor discovery off, so the processors that dependencies register (Lombok and the like) are named too
+    processorPath(bundle).ifPresent(processorPath -> {
+        var path = new LinkedHashSet<>(List.of(processorPath));
+        var processors = new LinkedHashSet<>(List.of(TestIndexProcessor.class.getName()));
+        for (var entry : classpath.split(":")) {
+            if (!entry.isEmpty()) {
+                path.add(entry);
+                processors.addAll(registeredProcessors(Paths.get(entry)));
+            }
+        }
+        javac.command().addAll(List.of(
+                "-J--enable-preview",
+                "-processorpath", String.join(":", path),
+                "-processor", String.join(",", processors)
+        ));
+    });
+    javac.command().addAll(sources.stream().map(Path::toString).toList());
+    return javac;
+}
+
+// Large libraries are split along their package dependencies so that independent parts compile in parallel
+Result compileLib(LibBundle bundle) {
+    var result = extractSection(Paths.get("."), "compile");
+    var settings = result.toSettings();
+    if (settings == null) {
+        return result;
+    }
+    int threshold;
+    int workers;
+    try {
+        threshold = Integer.parseInt(settings.get("parallel-threshold").orElse("200"));
+        workers = Integer.parseInt(settings.get("parallelism")
+                .orElse(String.valueOf(Runtime.getRuntime().availableProcessors())));
+    } catch (NumberFormatException e) {
+        System.err.println("error: `parallel-threshold` and `parallelism` in `[compile]` must be whole numbers");
+        System.err.println(e.getMessage());
+        return new Result(null);
+    }
+    if (bundle.getSource().size() < threshold || workers < 2) {
+        return compile(bundle);
+    }
+
+    var levels = partition(bundle.getSource(), workers);
+    if (levels == null || levels.stream().allMatch(level -> level.size() < 2)) {
+        return compile(bundle);
+    }
+
+    var partitionsDir = Paths.get("target", "lib-partitions");
+    var outDirs = new ArrayList<Path>();
+    try (var executor = Executors.newFixedThreadPool(workers)) {
+        deleteRecursively(partitionsDir);
+        var partitionCount = levels.stream().mapToInt(List::size).sum();
+        System.out.println(STR."    Compiling \{bundle.getSource().size()} lib sources in \{partitionCount} partitions");
+        for (var level = 0; level < levels.size(); level++) {
+            // everything from earlier levels is on the classpath, so a level only waits for the ones before it
+            var classpath = new ArrayList<String>();
+            if (!bundle.getClasspath().isEmpty()) {
+                classpath.add(bundle.getClasspath());
+            }
+            outDirs.forEach(dir -> classpath.add(dir.toString()));
+
+            var compiles = new ArrayList<Future<Integer>>();
+            for (var i = 0; i < levels.get(level).size(); i++) {
+                var outDir = partitionsDir.resolve(STR."\{level}-\{i}");
+                outDirs.add(outDir);
+                var javac = javac(bundle, String.join(":", classpath), outDir.toString(), levels.get(level).get(i));
+                compiles.add(executor.submit(() -> run(javac.start(), false)));
+            }
+            for (var compile : compiles) {
+                if (compile.get() != 0) {
+                    System.err.println("warning: partitioned compile failed, compiling the lib sources in one go");
+                    return compile(bundle);
+                }
+            }
+        }
+        mergePartitions(outDirs, Paths.get(bundle.outLocation()));
+        Telemetry.add("bytes.compiled", sourceBytes(bundle.getSource()));
+    } catch (IOException | InterruptedException | ExecutionException e) {
+        System.err.println("error: failed to compile");
+        System.err.println(e.getMessage());
+        return new Result(null);
+    }
+    return new Result(new Ok());
+}
+
+// Counted once a compile has succeeded, so a partitioned compile that falls back to one javac isn't counted twice
+private static long sourceBytes(List<Path> sources) {
+    return sources.stream().mapToLong(source -> source.toFile().length()).sum();
+}
+
+// Groups sources into levels of partitions: the package dependency graph is collapsed into strongly connected
+// components, components are levelled by their longest dependency chain, and each level is spread over the workers
+static List<List<List<Path>>> partition(List<Path> sources, int workers) {
+    var packageOf = new HashMap<Path, String>();
+    var texts = new HashMap<Path, String>();
+    try {
+        for (var source : sources) {
+            var text = Files.readString(source);
+            texts.put(source, text);
+            var matcher = PACKAGE_DECLARATION.matcher(text);
+            packageOf.put(source, matcher.find() ? matcher.group(1) : "");
+        }
+    } catch (IOException e) {
+        return null;
+    }
+
+    var packages = new TreeSet<>(packageOf.values());
+    var graph = new HashMap<String, Set<String>>();
+    packages.forEach(pkg -> graph.put(pkg, new TreeSet<>()));
+    for (var source : sources) {
+        var pkg = packageOf.get(source);
+        var matcher = QUALIFIED_NAME.matcher(texts.get(source));
+        while (matcher.find()) {
+            // the longest prefix that names one of the lib's packages, as in `a.b.C.D` or `a.b.*`
+            var name = matcher.group(1);
+            while (!name.isEmpty() && !packages.contains(name)) {
+                var dot = name.lastIndexOf('.');
+                name = dot == -1 ? "" : name.substring(0, dot);
+            }
+            if (!name.isEmpty() && !name.equals(pkg)) {
+                graph.get(pkg).add(name);
+            }
+        }
+    }
+
+    var components = stronglyConnectedComponents(graph);
+    var componentOf = new HashMap<String, Integer>();
+    for (var i = 0; i < components.size(); i++) {
+        for (var pkg : components.get(i)) {
+            componentOf.put(pkg, i);
+        }
+    }
+    // Tarjan emits a component only after everything it depends on, so one pass in order settles the levels
+    var depth = new int[components.size()];
+    for (var i = 0; i < components.size(); i++) {
+        for (var pkg : components.get(i)) {
+            for (var dependency : graph.get(pkg)) {
+                var other = componentOf.get(dependency);
+                if (other != i) {
+                    depth[i] = Math.max(depth[i], depth[other] + 1);
+                }
+            }
+        }
+    }
+
+    var sourcesByComponent = new HashMap<Integer, List<Path>>();
+    for (var source : sources) {
+        sourcesByComponent.computeIfAbsent(componentOf.get(packageOf.get(source)), _ -> new ArrayList<>()).add(source);
+    }
+    var levels = new ArrayList<List<List<Path>>>();
+    var maxDepth = Arrays.stream(depth).max().orElse(0);
+    for (var level = 0; level <= maxDepth; level++) {
+        // largest components first onto the least loaded partition
+        var finalLevel = level;
+        var inLevel = sourcesByComponent.entrySet().stream()
+                .filter(entry -> depth[entry.getKey()] == finalLevel)
+                .map(Map.Entry::getValue)
+                .sorted(Comparator.comparingInt((List<Path> group) -> group.size()).reversed())
+                .toList();
+        var buckets = new ArrayList<List<Path>>();
+        for (var group : inLevel) {
+            if (buckets.size() < workers) {
+                buckets.add(new ArrayList<>(group));
+            } else {
+                buckets.stream().min(Comparator.comparingInt(List::size)).orElseThrow().addAll(group);
+            }
+        }
+        levels.add(buckets);
+    }
+    return levels;
+}
+
+static List<List<String>> stronglyConnectedComponents(Map<String, Set<String>> graph) {
+    var tarjan = new Object() {
+        int next = 0;
+        final Map<String, Integer> index = new HashMap<>();
+        final Map<String, Integer> lowLink = new HashMap<>();
+        final Deque<String> stack = new ArrayDeque<>();
+        final Set<String> onStack = new HashSet<>();
+        final List<List<String>> components = new ArrayList<>();
+
+        void visit(String node) {
+            index.put(node, next);
+            lowLink.put(node, next);
+            next++;
+            stack.push(node);
+            onStack.add(node);
+            for (var dependency : graph.get(node)) {
+                if (!index.containsKey(dependency)) {
+                    visit(dependency);
+                    lowLink.put(node, Math.min(lowLink.get(node), lowLink.get(dependency)));
+                } else if (onStack.contains(dependency)) {
+                    lowLink.put(node, Math.min(lowLink.get(node), index.get(dependency)));
+                }
+            }
+            if (lowLink.get(node).equals(index.get(node))) {
+                var component = new ArrayList<String>();
+                String member;
+                do {
+                    member = stack.pop();
+                    onStack.remove(member);
+                    component.add(member);
+                } while (!member.equals(node));
+                components.add(component);
+            }
+        }
+    };
+    for (var node : new TreeSet<>(graph.keySet())) {
+        if (!tarjan.index.containsKey(node)) {
+            tarjan.visit(node);
+        }
+    }
+    return tarjan.components;
+}
+
+// Test indexes are per javac run, so the partitions' copies are concatenated rather than overwritten
+private static void mergePartitions(List<Path> outDirs, Path target) throws IOException {
+    var indexes = new HashMap<String, List<String>>();
+    for (var outDir : outDirs) {
+        if (!Files.isDirectory(outDir)) {
+            continue;
+        }
+        try (var files = Files.walk(outDir)) {
+            for (var file : files.filter(Files::isRegularFile).toList()) {
+                var relative = outDir.relativize(file).toString();
+                if (relative.equals(TestRunner.INDEX) || relative.equals(LoadTestRunner.INDEX)) {
+                    indexes.computeIfAbsent(relative, _ -> new ArrayList<>()).addAll(Files.readAllLines(file));
+                    continue;
+                }
+                var destination = target.resolve(relative);
+                Files.createDirectories(destination.getParent());
+                Files.copy(file, destination, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+    for (var index : indexes.entrySet()) {
+        var destination = target.resolve(index.getKey());
+        Files.createDirectories(destination.getParent());
+        Files.write(destination, index.getValue());
+    }
+}
+
+// Prefer the index processor the project compiles against, falling back to the one bundled with this tool
+static Optional<String> processorPath(Bundle bundle) {
+    for (var entry : bundle.getClasspath().split(":")) {
+        if (!entry.isEmpty() && containsProcessor(Paths.get(entry))) {
+            return Optional.of(entry);
+        }
+    }
+
+    var codeSource = TestIndexProcessor.class.getProtectionDomain().getCodeSource();
+    if (codeSource == null) {
+        return Optional.empty();
+    }
+    try {
+        var location = Paths.get(codeSource.getLocation().toURI());
+        return containsProcessor(location) ? Optional.of(location.toString()) : Optional.empty();
+    } catch (URISyntaxException | IllegalArgumentException | FileSystemNotFoundException e) {
+        // loaded from somewhere javac can't read, e.g. the source launcher's memory
+        return Optional.empty();
+    }
+}
+
+// The processors a class directory or jar registers in META-INF/services, which javac would otherwise have found itself
+static List<String> registeredProcessors(Path path) {
+    var services = "META-INF/services/javax.annotation.processing.Processor";
+    String content;
+    try {
+        if (Files.isDirectory(path)) {
+            var file = path.resolve(services);
+            content = Files.exists(file) ? Files.readString(file) : "";
+        } else {
+            try (var jar = new JarFile(path.toFile())) {
+                var entry = jar.getEntry(services);
+                content = entry == null ? "" : new String(jar.getInputStream(entry).readAllBytes());
+            }
+        }
+    } catch (IOException e) {
+        return List.of();
+    }
+    return content.lines()
+            .map(line -> line.replaceAll("#.*", "").trim())
+            .filter(line -> !line.isEmpty())
+            .toList();
+}
+
+static boolean containsProcessor(Path path) {
+    var classFile = STR."\{TestIndexProcessor.class.getName().replace('.', '/')}.class";
+    if (Files.isDirectory(path)) {
+        return Files.exists(path.resolve(classFile));
+    }
+    try (var jar = new JarFile(path.toFile())) {
+        return jar.getEntry(classFile) != null;
+    } catch (IOException e) {
+        return false;
+    }
+}
+
+private static String capture(List<String> command) throws IOException, InterruptedException {
+    var process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    var output = new String(process.getInputStream().readAllBytes());
+    if (process.waitFor() != 0) {
+        throw new IOException(STR."`\{command.getFirst()}` exited with value: \{process.exitValue()}");
+    }
+    return output;
 }
 
 private int run(Process process) throws IOException, InterruptedException {
+    return run(process, true);
+}
+
+// Processes running side by side shouldn't all be reading from stdin
+private int run(Process process, boolean forwardInput) throws IOException, InterruptedException {
     // XXX: should try out the Project Loom stuff here
     var stdout = new ProcessPrinter(process.inputReader(), System.out, false);
     var stderr = new ProcessPrinter(process.errorReader(), System.err, true);
-    var stdin = new ProcessWriter(process, System.in);
     Thread outThread = new Thread(stdout);
     Thread errThread = new Thread(stderr);
-    Thread inThread = new Thread(stdin);
+    Thread inThread = forwardInput ? new Thread(new ProcessWriter(process, System.in)) : null;
     outThread.start();
     errThread.start();
-    inThread.start();
+    if (inThread != null) {
+        inThread.start();
+    }
     process.waitFor();
     outThread.join();
     errThread.join();
-    inThread.join();
+    if (inThread != null) {
+        inThread.join();
+    }
     return process.exitValue();
 }
 
@@ -462,7 +1798,8 @@ Result jarLib(Package aPackage) {
     return doJarring(jarDir, jarName, manifest, classDirectory);
 }
 
-Result jar(Package aPackage, String mainClassName, Jars dependencies, Artifact artifact) {
+Result jar(Package aPackage, String mainClassName, Jars dependencies, BuildOptions options) {
+    var artifact = options.artifact();
     var needsFat = artifact == Artifact.FAT || artifact == Artifact.NATIVE;
     var manifest = new Manifest();
     var attributes = manifest.getMainAttributes();
@@ -477,6 +1814,10 @@ Result jar(Package aPackage, String mainClassName, Jars dependencies, Artifact a
         return result;
     }
 
+    if (artifact == Artifact.LAYERED) {
+        return layeredJar(aPackage, manifest, dependencies);
+    }
+
     var libs = dependencies.libs();
     if (needsFat) {
         result = unpack(dependencies);
@@ -490,25 +1831,170 @@ Result jar(Package aPackage, String mainClassName, Jars dependencies, Artifact a
 
     var jarName = aPackage.getMainJarName();
     if (needsFat) {
-        return doJarring(jarDir, jarName, manifest, STR."\{aPackage.name}-classes", "lib-classes");
+        result = doJarring(jarDir, jarName, manifest, STR."\{aPackage.name}-classes", "lib-classes",
+                "dependency-classes");
+        if (result.isOk() && options.shrink()) {
+            result = shrink(jarDir.resolve(jarName));
+        }
+        return result;
     } else {
         return doJarring(jarDir, jarName, manifest, STR."\{aPackage.name}-classes");
     }
 }
 
+// Layers from least to most likely to change, each its own directory so a container build can copy them separately
+private static final List<String> LAYERS = List.of("dependencies", "lib", "app");
+private static final Path LAYERS_DIR = Paths.get("target", "layers");
+private static final String LIB_LAYER_JAR = "lib-classes.jar";
+
+Result layeredJar(Package aPackage, Manifest manifest, Jars dependencies) {
+    var classPath = new ArrayList<String>();
+    if (Files.isDirectory(Paths.get("target", "lib-classes"))) {
+        classPath.add(STR."../lib/\{LIB_LAYER_JAR}");
+    }
+    dependencies.libs().stream()
+            .map(lib -> STR."../dependencies/\{lib.path.getFileName()}")
+            .sorted()
+            .forEach(classPath::add);
+    manifest.getMainAttributes().putValue("Class-Path", String.join(" ", classPath));
+    var jarPath = LAYERS_DIR.resolve("app").resolve(aPackage.getMainJarName());
+    return stableJar(jarPath, manifest, Paths.get("target", STR."\{aPackage.name}-classes"));
+}
+
+private static Result clearLayers() {
+    try {
+        for (var layer : LAYERS) {
+            deleteRecursively(LAYERS_DIR.resolve(layer));
+            Files.createDirectories(LAYERS_DIR.resolve(layer));
+        }
+    } catch (IOException e) {
+        System.err.println(STR."error: could not clear `\{LAYERS_DIR}`");
+        System.err.println(e.getMessage());
+        return new Result(null);
+    }
+    return new Result(new Ok());
+}
+
+// The app layer is already jarred by now; this adds the other two and records each layer's content hash
+Result writeLayers(Jars dependencies) {
+    var indexPath = LAYERS_DIR.resolve("layers.idx");
+    try {
+        for (var lib : dependencies.libs()) {
+            Files.copy(lib.path, LAYERS_DIR.resolve("dependencies").resolve(lib.path.getFileName()));
+        }
+        var libClasses = Paths.get("target", "lib-classes");
+        if (Files.isDirectory(libClasses)) {
+            var manifest = new Manifest();
+            manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+            manifest.getMainAttributes().putValue("Created-By", "Cult 0.3.1");
+            var result = stableJar(LAYERS_DIR.resolve("lib").resolve(LIB_LAYER_JAR), manifest, libClasses);
+            if (!result.isOk()) {
+                return result;
+            }
+        }
+
+        var previous = new HashMap<String, String>();
+        if (Files.exists(indexPath)) {
+            for (var line : Files.readAllLines(indexPath)) {
+                var split = line.split(" ");
+                if (split.length == 2) {
+                    previous.put(split[0], split[1]);
+                }
+            }
+        }
+        var lines = new ArrayList<String>();
+        for (var layer : LAYERS) {
+            var hash = layerHash(LAYERS_DIR.resolve(layer));
+            lines.add(STR."\{layer} \{hash}");
+            var state = hash.equals(previous.get(layer)) ? "unchanged" : "changed";
+            System.out.println(STR."       Layer `\{layer}` \{hash.substring(0, 12)} (\{state})");
+        }
+        Files.write(indexPath, lines);
+    } catch (IOException e) {
+        System.err.println(STR."error: could not write layers to `\{LAYERS_DIR}`");
+        System.err.println(e.getMessage());
+        return new Result(null);
+    }
+    return new Result(new Ok());
+}
+
+static String layerHash(Path layerDir) throws IOException {
+    MessageDigest digest;
+    try {
+        digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+        throw new IOException(e);
+    }
+    try (var files = Files.walk(layerDir)) {
+        for (var file : files.filter(Files::isRegularFile).sorted().toList()) {
+            digest.update(layerDir.relativize(file).toString().getBytes());
+            digest.update(Files.readAllBytes(file));
+        }
+    }
+    return HexFormat.of().formatHex(digest.digest());
+}
+
+// Sorted entries and a fixed timestamp, so the same classes always give a byte-for-byte identical jar
+private static Result stableJar(Path jarPath, Manifest manifest, Path classesDir) {
+    var timestamp = LocalDateTime.of(1980, 2, 1, 0, 0);
+    try (
+            var fos = new FileOutputStream(jarPath.toString());
+            var jar = new JarOutputStream(fos)
+    ) {
+        var manifestEntry = new JarEntry(JarFile.MANIFEST_NAME);
+        manifestEntry.setTimeLocal(timestamp);
+        jar.putNextEntry(manifestEntry);
+        manifest.write(jar);
+        jar.closeEntry();
+
+        if (!Files.isDirectory(classesDir)) {
+            return new Result(new Ok());
+        }
+        List<Path> files;
+        try (var paths = Files.walk(classesDir)) {
+            files = paths.filter(Files::isRegularFile)
+                    .filter(file -> !isTestIndex(classesDir, file))
+                    .sorted()
+                    .toList();
+        }
+        for (var file : files) {
+            var entry = new JarEntry(classesDir.relativize(file).toString().replace(File.separatorChar, '/'));
+            entry.setTimeLocal(timestamp);
+            jar.putNextEntry(entry);
+            jar.write(Files.readAllBytes(file));
+            jar.closeEntry();
+        }
+    } catch (IOException e) {
+        System.err.println(STR."error: failed creating jar file `\{jarPath}`. \{e.getMessage()}");
+        return new Result(null);
+    }
+    Telemetry.add("bytes.jarred", jarPath.toFile().length());
+    return new Result(new Ok());
+}
+
+// Unpacked from scratch for every fat jar, so classes of a dependency that was dropped don't linger
 private static Result unpack(Jars dependencies) {
-    var base = Paths.get("target", "classes");
+    var base = Paths.get("target", "dependency-classes");
+    try {
+        deleteRecursively(base);
+    } catch (IOException e) {
+        System.err.println(STR."error: could not clear `\{base}`");
+        System.err.println(e.getMessage());
+        return new Result(null);
+    }
     for (var lib : dependencies.libs()) {
-        if (!lib.wasCopied) {
-            continue;
-        }
         var dependency = lib.path;
         try (var jar = new JarFile(dependency.toFile())) {
             var entries = jar.entries();
             while (entries.hasMoreElements()) {
                 var entry = entries.nextElement();
                 if (entry.getName().equals("META-INF/MANIFEST.MF") ||
-                        entry.getName().equals("module.properties")) {
+                        entry.getName().equals("module.properties") ||
+                        entry.getName().endsWith("module-info.class")) {
+                    continue;
+                }
+                // signatures no longer match once the classes share a jar with others
+                if (entry.getName().matches("META-INF/[^/]+\\.(SF|RSA|DSA|EC)")) {
                     continue;
                 }
 
@@ -520,7 +2006,8 @@ private static Result unpack(Jars dependencies) {
                 var entryDest = base.resolve(nameToUse);
                 if (entry.isDirectory()) {
                     Files.createDirectories(entryDest);
-                } else {
+                } else if (!Files.exists(entryDest)) {
+                    // the first dependency to provide an entry wins
                     Files.createDirectories(entryDest.getParent());
                     try (InputStream input = jar.getInputStream(entry)) {
                         Files.copy(input, entryDest);
@@ -537,6 +2024,246 @@ private static Result unpack(Jars dependencies) {
     return new Result(new Ok());
 }
 
+Result shrink(Path jarPath) {
+    var result = extractSection(Paths.get("."), "shrink");
+    var settings = result.toSettings();
+    if (settings == null) {
+        return result;
+    }
+    var keepRules = settings.list("keep").stream().map(rule -> keepRule(rule)).toList();
+
+    Manifest manifest;
+    var entries = new LinkedHashMap<String, byte[]>();
+    long before;
+    try (var jar = new JarFile(jarPath.toFile())) {
+        manifest = jar.getManifest();
+        var jarEntries = jar.entries();
+        while (jarEntries.hasMoreElements()) {
+            var entry = jarEntries.nextElement();
+            if (entry.isDirectory() || entry.getName().equals(JarFile.MANIFEST_NAME)) {
+                continue;
+            }
+            try (var input = jar.getInputStream(entry)) {
+                entries.put(entry.getName(), input.readAllBytes());
+            }
+        }
+        before = Files.size(jarPath);
+    } catch (IOException e) {
+        System.err.println(STR."error: could not read jar file `\{jarPath}`");
+        System.err.println(e.getMessage());
+        return new Result(null);
+    }
+
+    // class name -> every class file for it, multi-release variants included
+    var classes = new HashMap<String, List<byte[]>>();
+    for (var entry : entries.entrySet()) {
+        var className = className(entry.getKey());
+        if (className != null) {
+            classes.computeIfAbsent(className, _ -> new ArrayList<>()).add(entry.getValue());
+        }
+    }
+
+    var roots = new ArrayList<String>();
+    var mainClass = manifest.getMainAttributes().getValue("Main-Class");
+    if (mainClass != null) {
+        roots.add(mainClass.replace('.', '/'));
+    }
+    for (var className : classes.keySet()) {
+        var dotted = className.replace('/', '.');
+        if (keepRules.stream().anyMatch(rule -> rule.matcher(dotted).matches())) {
+            roots.add(className);
+        }
+    }
+
+    var reachable = new HashSet<String>();
+    var services = new HashSet<String>();
+    while (!roots.isEmpty()) {
+        var pending = new ArrayDeque<>(roots);
+        roots.clear();
+        while (!pending.isEmpty()) {
+            var className = pending.pop();
+            if (!classes.containsKey(className) || !reachable.add(className)) {
+                continue;
+            }
+            for (var bytes : classes.get(className)) {
+                pending.addAll(referencedClasses(bytes));
+            }
+        }
+
+        // ServiceLoader providers are only named in META-INF/services, so keep them while the service is in use
+        for (var entry : entries.entrySet()) {
+            var name = entry.getKey();
+            if (!name.startsWith("META-INF/services/") || services.contains(name)) {
+                continue;
+            }
+            var service = name.substring("META-INF/services/".length()).replace('.', '/');
+            if (!reachable.contains(service) && classes.containsKey(service)) {
+                continue;
+            }
+            services.add(name);
+            new String(entry.getValue()).lines()
+                    .map(line -> line.split("#")[0].trim())
+                    .filter(line -> !line.isEmpty())
+                    .forEach(provider -> roots.add(provider.replace('.', '/')));
+        }
+    }
+
+    var reachablePackages = new HashSet<String>();
+    for (var className : reachable) {
+        reachablePackages.add(packageOf(className));
+    }
+
+    var kept = 0;
+    var tmpPath = jarPath.resolveSibling(STR."\{jarPath.getFileName()}.tmp");
+    try (
+            var fos = new FileOutputStream(tmpPath.toString());
+            var jar = new JarOutputStream(fos, manifest)
+    ) {
+        for (var entry : entries.entrySet()) {
+            var name = entry.getKey();
+            var className = className(name);
+            boolean keep;
+            if (className != null) {
+                keep = reachable.contains(className);
+            } else if (name.startsWith("META-INF/services/")) {
+                keep = services.contains(name);
+            } else {
+                keep = name.startsWith("META-INF/") || reachablePackages.contains(packageOf(name));
+            }
+            if (!keep) {
+                continue;
+            }
+            if (className != null && !name.startsWith("META-INF/")) {
+                kept++;
+            }
+            jar.putNextEntry(new JarEntry(name));
+            jar.write(entry.getValue());
+            jar.closeEntry();
+        }
+    } catch (IOException e) {
+        System.err.println(STR."error: could not write shrunk jar file `\{jarPath}`");
+        System.err.println(e.getMessage());
+        return new Result(null);
+    }
+
+    try {
+        Files.move(tmpPath, jarPath, StandardCopyOption.REPLACE_EXISTING);
+        var after = Files.size(jarPath);
+        System.out.printf("    Shrinking `%s`: kept %d of %d classes, saved %.1fKiB (%.1fKiB -> %.1fKiB)%n",
+                jarPath.getFileName(), kept, classes.size(), (before - after) / 1024f, before / 1024f, after / 1024f);
+    } catch (IOException e) {
+        System.err.println(STR."error: could not replace jar file `\{jarPath}`");
+        System.err.println(e.getMessage());
+        return new Result(null);
+    }
+    return new Result(new Ok());
+}
+
+static Pattern keepRule(String rule) {
+    // `**` spans packages, `*` stays within one
+    var regex = new StringBuilder();
+    var literal = new StringBuilder();
+    for (var i = 0; i < rule.length(); i++) {
+        if (rule.charAt(i) != '*') {
+            literal.append(rule.charAt(i));
+            continue;
+        }
+        if (!literal.isEmpty()) {
+            regex.append(Pattern.quote(literal.toString()));
+            literal.setLength(0);
+        }
+        if (i + 1 < rule.length() && rule.charAt(i + 1) == '*') {
+            regex.append(".*");
+            i++;
+        } else {
+            regex.append("[^.]*");
+        }
+    }
+    if (!literal.isEmpty()) {
+        regex.append(Pattern.quote(literal.toString()));
+    }
+    return Pattern.compile(regex.toString());
+}
+
+static String className(String entryName) {
+    if (!entryName.endsWith(".class") || entryName.endsWith("module-info.class")) {
+        return null;
+    }
+    var name = entryName.substring(0, entryName.length() - ".class".length());
+    if (name.startsWith("META-INF/versions/")) {
+        var parts = name.split("/", 4);
+        return parts.length == 4 ? parts[3] : null;
+    }
+    return name;
+}
+
+static String packageOf(String name) {
+    var slash = name.lastIndexOf('/');
+    return slash == -1 ? "" : name.substring(0, slash);
+}
+
+private static final Pattern PACKAGE_DECLARATION = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;", Pattern.MULTILINE);
+
+// imports as well as fully qualified names in code, i.e. lower case segments followed by a type or `*`
+private static final Pattern QUALIFIED_NAME = Pattern.compile("\\b([a-z_]\\w*(?:\\.[a-z_]\\w*)*)\\.(?:[A-Z]|\\*)");
+
+private static final Pattern DESCRIPTOR_CLASS = Pattern.compile("L([^;<>()\\[.]+)[;<]");
+
+// Walks the constant pool: class entries, any descriptor or signature, and string constants that could name a class
+static Set<String> referencedClasses(byte[] classFile) {
+    var referenced = new HashSet<String>();
+    try (var in = new DataInputStream(new ByteArrayInputStream(classFile))) {
+        in.skipBytes(8);
+        var count = in.readUnsignedShort();
+        var utf8 = new String[count];
+        var classIndexes = new ArrayList<Integer>();
+        var stringIndexes = new ArrayList<Integer>();
+        for (var i = 1; i < count; i++) {
+            var tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1 -> utf8[i] = in.readUTF();
+                case 7 -> classIndexes.add(in.readUnsignedShort());
+                case 8 -> stringIndexes.add(in.readUnsignedShort());
+                case 16, 19, 20 -> in.skipBytes(2);
+                case 15 -> in.skipBytes(3);
+                case 3, 4, 9, 10, 11, 12, 17, 18 -> in.skipBytes(4);
+                case 5, 6 -> {
+                    in.skipBytes(8);
+                    i++;
+                }
+                default -> throw new IOException(STR."unknown constant pool tag \{tag}");
+            }
+        }
+
+        for (var index : classIndexes) {
+            var name = utf8[index];
+            if (name.startsWith("[")) {
+                var matcher = DESCRIPTOR_CLASS.matcher(name);
+                while (matcher.find()) {
+                    referenced.add(matcher.group(1));
+                }
+            } else {
+                referenced.add(name);
+            }
+        }
+        for (var value : utf8) {
+            if (value == null) {
+                continue;
+            }
+            var matcher = DESCRIPTOR_CLASS.matcher(value);
+            while (matcher.find()) {
+                referenced.add(matcher.group(1));
+            }
+        }
+        for (var index : stringIndexes) {
+            referenced.add(utf8[index].replace('.', '/'));
+        }
+    } catch (IOException e) {
+        // not a class file we understand, so nothing more can be learned from it
+    }
+    return referenced;
+}
+
 private static Result createDir(Path targetDir) {
     try {
         Files.createDirectories(targetDir);
@@ -549,28 +2276,42 @@ private static Result createDir(Path targetDir) {
 
 private Result doJarring(Path jarDir, String jarName, Manifest manifest, String... classDirectory) {
     var jarPath = jarDir.resolve(jarName);
+    Result result = new Result(new Ok());
+    // earlier directories win, so the project's own classes and resources take precedence over the dependencies'
+    var added = new HashSet<String>();
     try (
             var fos = new FileOutputStream(jarPath.toString());
             var jar = new JarOutputStream(fos, manifest)
     ) {
-        Result result = new Result(null);
         for (var classesPath : classDirectory) {
             var path = Paths.get("target", classesPath);
-            result = buildJar(path, jar);
+            // there are no lib-classes without lib sources, nor dependency-classes without dependencies
+            if (!Files.isDirectory(path)) {
+                continue;
+            }
+            result = buildJar(path, jar, added);
             if (!result.isOk()) {
                 return result;
             }
         }
-        return result;
     } catch (IOException e) {
         System.err.println(STR."error: failed creating jar file. \{e.getMessage()}");
         return new Result(null);
     }
+    Telemetry.add("bytes.jarred", jarPath.toFile().length());
+    return result;
 }
 
-private Result buildJar(Path classesToJar, JarOutputStream jar) {
+// Test indexes are only read from class directories, and every class directory has its own, so jars leave them out
+private static boolean isTestIndex(Path classesDir, Path file) {
+    return file.startsWith(classesDir.resolve("META-INF").resolve("cult"));
+}
+
+private Result buildJar(Path classesToJar, JarOutputStream jar, Set<String> added) {
     try (var paths = Files.walk(classesToJar)) {
             paths.filter(Files::isRegularFile)
+                 .filter(file -> !isTestIndex(classesToJar, file))
+                 .filter(file -> added.add(classesToJar.relativize(file).toString()))
                  .forEach(file -> {
                      try {
                          var entry = new JarEntry(classesToJar.relativize(file).toString());
@@ -610,10 +2351,19 @@ record Result(Record record) {
     public Sources toLibSources() {
         return (Sources) record;
     }
+
+    public Settings toSettings() {
+        return (Settings) record;
+    }
 }
 
 record Ok() {}
 
+// TestRunner::run or LoadTestRunner::run
+private interface Suite {
+    boolean run(List<Path> classPath) throws ReflectiveOperationException, IOException;
+}
+
 private interface Bundle {
     String getClasspath();
 
@@ -717,6 +2467,10 @@ private interface Dependency {
     Optional<Path> resolve(ModuleId module);
 
     Result fetch(ModuleId module, Path libJarPath);
+
+    default boolean verify(Path libJarPath) {
+        return true;
+    }
 }
 
 record Version(Integer major, Integer minor, Integer patch) implements Dependency {
@@ -748,6 +2502,7 @@ record Version(Integer major, Integer minor, Integer patch) implements Dependenc
         return Optional.of(Paths.get("target", "lib").resolve(jarName));
     }
 
+    // Retries with backoff, checks the jar against the repository's SHA-1 and only then moves it into place
     @Override
     public Result fetch(ModuleId module, Path libJarPath) {
         // XXX: maybe move this stuff into ModuleId
@@ -755,15 +2510,69 @@ record Version(Integer major, Integer minor, Integer patch) implements Dependenc
         var semver = semver();
         var jarName = libJarPath.getFileName();
         String url = STR."https://repo1.maven.org/maven2/\{ orgPath }/\{ module.name }/\{ semver }/\{ jarName }";
-        try (InputStream in = URI.create(url).toURL().openStream()) {
-            Files.copy(in, libJarPath);
-            return new Result(new Ok());
+        IOException failure = null;
+        for (var attempt = 0; attempt < FETCH_ATTEMPTS; attempt++) {
+            try {
+                if (attempt > 0) {
+                    Thread.sleep(FETCH_BACKOFF_MS << (attempt - 1));
+                }
+                var jar = download(url);
+                var expected = new String(download(STR."\{url}.sha1")).trim().split("\\s+")[0];
+                var actual = sha1(jar);
+                if (!actual.equalsIgnoreCase(expected)) {
+                    throw new IOException(STR."checksum mismatch, expected \{expected} but got \{actual}");
+                }
+                var partial = libJarPath.resolveSibling(STR."\{jarName}.part");
+                Files.write(partial, jar);
+                Files.move(partial, libJarPath, StandardCopyOption.REPLACE_EXISTING);
+                Files.writeString(checksumPath(libJarPath), actual);
+                return new Result(new Ok());
+            } catch (IOException e) {
+                failure = e;
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        System.err.println(STR."error: could not fetch library: \{url}");
+        System.err.println(failure == null ? "interrupted" : failure.getMessage());
+        return new Result(null);
+    }
+
+    @Override
+    public boolean verify(Path libJarPath) {
+        try {
+            var checksum = checksumPath(libJarPath);
+            return Files.exists(checksum) && Files.readString(checksum).equals(sha1(Files.readAllBytes(libJarPath)));
         } catch (IOException e) {
-            System.err.println(STR."error: could not fetch library: \{url}");
-            System.err.println(e.getMessage());
-            return new Result(null);
+            return false;
         }
     }
+
+    private static Path checksumPath(Path libJarPath) {
+        return libJarPath.resolveSibling(STR."\{libJarPath.getFileName()}.sha1");
+    }
+}
+
+private static final int FETCH_ATTEMPTS = 3;
+private static final long FETCH_BACKOFF_MS = 500;
+
+static byte[] download(String url) throws IOException {
+    var connection = URI.create(url).toURL().openConnection();
+    connection.setConnectTimeout(10_000);
+    connection.setReadTimeout(30_000);
+    try (InputStream in = connection.getInputStream()) {
+        var bytes = in.readAllBytes();
+        Telemetry.add("bytes.downloaded", bytes.length);
+        return bytes;
+    }
+}
+
+static String sha1(byte[] bytes) throws IOException {
+    try {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(bytes));
+    } catch (NoSuchAlgorithmException e) {
+        throw new IOException(e);
+    }
 }
 
 record LocalDir(Path pathToRoot) implements Dependency {
@@ -819,11 +2628,189 @@ record Sources(List<Path> paths) {
 
 }
 
+record Settings(Map<String, String> values) {
+
+    Optional<String> get(String key) {
+        return Optional.ofNullable(values.get(key)).map(value -> unquote(withoutComment(value)));
+    }
+
+    // Settings take a trailing `# comment`, as long as the `#` isn't inside a string
+    private static String withoutComment(String value) {
+        var quoted = false;
+        for (var i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            if (quoted && c == '\\') {
+                i++;
+            } else if (c == '"') {
+                quoted = !quoted;
+            } else if (!quoted && c == '#') {
+                return value.substring(0, i);
+            }
+        }
+        return value;
+    }
+
+    List<String> list(String key) {
+        var value = values.get(key);
+        if (value == null) {
+            return List.of();
+        }
+        return items(value).stream().map(Settings::unquote).toList();
+    }
+
+    Map<String, String> table(String key) {
+        var value = values.get(key);
+        var table = new LinkedHashMap<String, String>();
+        if (value == null) {
+            return table;
+        }
+        for (var pair : items(value)) {
+            var equals = pair.indexOf('=');
+            if (equals > 0) {
+                table.put(unquote(pair.substring(0, equals)), unquote(pair.substring(equals + 1)));
+            }
+        }
+        return table;
+    }
+
+    // The items of a one-line TOML array or inline table. Only commas, brackets and `#` outside of quotes count, since
+    // JVM flags like `-Xlog:gc*:file=gc.log:time,uptime` have commas of their own.
+    private static List<String> items(String value) {
+        var items = new ArrayList<String>();
+        var item = new StringBuilder();
+        var quoted = false;
+        for (var i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            if (quoted && c == '\\' && i + 1 < value.length()) {
+                item.append(c).append(value.charAt(++i));
+                continue;
+            }
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (!quoted && c == '#') {
+                break;
+            } else if (!quoted && "[]{}".indexOf(c) >= 0) {
+                continue;
+            } else if (!quoted && c == ',') {
+                items.add(item.toString().trim());
+                item.setLength(0);
+                continue;
+            }
+            item.append(c);
+        }
+        items.add(item.toString().trim());
+        return items.stream().filter(text -> !text.isEmpty()).toList();
+    }
+
+    private static String unquote(String item) {
+        var trimmed = item.trim();
+        if (trimmed.length() >= 2 && trimmed.startsWith("\"") && trimmed.endsWith("\"")) {
+            return trimmed.substring(1, trimmed.length() - 1).replace("\\\"", "\"").replace("\\\\", "\\");
+        }
+        return trimmed;
+    }
+}
+
+record LaunchProfile(List<String> jvmArgs, List<String> nativeArgs,
+                     Map<String, String> systemProperties, Map<String, String> env) {
+
+    static LaunchProfile none() {
+        return new LaunchProfile(List.of(), List.of(), Map.of(), Map.of());
+    }
+
+    List<String> javaOptions() {
+        var options = new ArrayList<>(jvmArgs);
+        systemProperties.forEach((key, value) -> options.add(STR."-D\{key}=\{value}"));
+        return options;
+    }
+
+    // `-D` given to native-image only reaches the image builder, so system properties are left for the executable
+    List<String> nativeOptions() {
+        return nativeArgs;
+    }
+
+    // native executables read `-D` options at run time, like `java` does
+    List<String> nativeRunOptions() {
+        var options = new ArrayList<String>();
+        systemProperties.forEach((key, value) -> options.add(STR."-D\{key}=\{value}"));
+        return options;
+    }
+
+    ProcessBuilder apply(ProcessBuilder processBuilder) {
+        processBuilder.environment().putAll(env);
+        return processBuilder;
+    }
+}
+
+record StartupSample(long mainNanos, long exitNanos, long peakRssBytes, int exitCode) {
+}
+
 enum Artifact {
-    JAR, FAT, NATIVE
+    // CLASSES stops after compiling, for running tests straight from the class directories
+    CLASSES, JAR, FAT, NATIVE, IMAGE, LAYERED
+}
+
+record BuildOptions(Artifact artifact, boolean shrink, String trace, List<String> traceArgs, LaunchProfile profile,
+                    boolean offline, boolean pgo) {
+
+    static BuildOptions of(Artifact artifact) {
+        return new BuildOptions(artifact, false, null, Collections.emptyList(), LaunchProfile.none(), false, false);
+    }
+
+    BuildOptions withOffline(boolean offline) {
+        return new BuildOptions(artifact, shrink, trace, traceArgs, profile, offline, pgo);
+    }
 }
 
 
+// Collects what a build, test or bench run cost and appends it to `.cult/telemetry.log` as one line of `key=value`
+// pairs. Phases are in milliseconds and bytes in bytes; downloads and compiles can run side by side, hence the map.
+static final class Telemetry {
+
+    static final Path LOG = Paths.get(".cult", "telemetry.log");
+
+    private static final Map<String, Long> values = new ConcurrentHashMap<>();
+    private static String command;
+    private static long started;
+
+    static void begin(String name) {
+        command = name;
+        started = System.nanoTime();
+        values.clear();
+    }
+
+    static void phase(String name, long since) {
+        add(STR."phase.\{name}", (System.nanoTime() - since) / 1_000_000);
+    }
+
+    static void add(String key, long amount) {
+        values.merge(key, amount, Long::sum);
+    }
+
+    static void finish(boolean ok) {
+        if (command == null) {
+            return;
+        }
+        add("total", (System.nanoTime() - started) / 1_000_000);
+        // the peak of every heap pool added up, cult's own JVM only since javac and friends run in their own processes
+        add("memory.peak", ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .mapToLong(pool -> pool.getPeakUsage().getUsed())
+                .sum());
+
+        var line = new StringBuilder(STR."\{LocalDateTime.now().withNano(0)} \{command} \{ok ? "ok" : "failed"}");
+        new TreeMap<>(values).forEach((key, value) -> line.append(STR." \{key}=\{value}"));
+        line.append("\n");
+        try {
+            Files.createDirectories(LOG.getParent());
+            Files.writeString(LOG, line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println(STR."warning: could not write telemetry to `\{LOG}`");
+        }
+        command = null;
+    }
+}
+
 static class ProcessPrinter implements Runnable {
 
     private final BufferedReader reader;
@@ -902,4 +2889,42 @@ static class CultTests {
         assertEquals("3.00", version.semver());
     }
 
+    @UnitTest
+    static void testHistogramPercentileWithinOnePercent() {
+        var histogram = new Histogram();
+        for (var i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000L, histogram.count());
+        assertEquals(1_000_000L, histogram.max());
+        var median = histogram.percentile(50);
+        assertEquals(true, median >= 500_000 && median <= 505_000);
+    }
+
+    @UnitTest
+    static void testSettingsKeepCommasInsideQuotes() {
+        var settings = new Settings(Map.of(
+                "jvm-args", "[\"-Xlog:gc*:file=gc.log:time,uptime\", \"-Xmx1g\"]  # logging",
+                "system-properties", "{ list = \"a,b\", mode = \"prod\" }"
+        ));
+        assertEquals(List.of("-Xlog:gc*:file=gc.log:time,uptime", "-Xmx1g"), settings.list("jvm-args"));
+        assertEquals(Map.of("list", "a,b", "mode", "prod"), settings.table("system-properties"));
+    }
+
+    @UnitTest
+    static void testKeepRuleGlobs() {
+        var anyDepth = keepRule("org.cult.**");
+        assertEquals(true, anyDepth.matcher("org.cult.TestRunner").matches());
+        assertEquals(true, anyDepth.matcher("org.cult.internal.Impl").matches());
+        assertEquals(false, anyDepth.matcher("org.other.Thing").matches());
+
+        var onePackage = keepRule("org.cult.*Runner");
+        assertEquals(true, onePackage.matcher("org.cult.TestRunner").matches());
+        assertEquals(false, onePackage.matcher("org.cult.internal.TestRunner").matches());
+
+        var literal = keepRule("org.cult.Lib$Inner");
+        assertEquals(true, literal.matcher("org.cult.Lib$Inner").matches());
+        assertEquals(false, literal.matcher("org.cultXLib$Inner").matches());
+    }
+
 }
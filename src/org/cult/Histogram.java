@@ -0,0 +1,79 @@
+package org.cult;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Log-linear histogram in the style of HdrHistogram: values below 2^SUB_BITS are counted exactly and above that every
+// power of two is split into 2^(SUB_BITS - 1) buckets, so any recorded value is off by less than 1%. Recording is a
+// single atomic increment, which keeps it cheap enough to sit inside a load test's hot loop.
+public class Histogram {
+
+    private static final int SUB_BITS = 8;
+    private static final int HALF = 1 << (SUB_BITS - 1);
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        var clamped = Math.max(0, value);
+        counts.incrementAndGet(index(clamped));
+        count.incrementAndGet();
+        max.accumulateAndGet(clamped, Math::max);
+    }
+
+    public void add(Histogram other) {
+        for (var i = 0; i < BUCKETS; i++) {
+            var bucket = other.counts.get(i);
+            if (bucket != 0) {
+                counts.addAndGet(i, bucket);
+            }
+        }
+        count.addAndGet(other.count());
+        max.accumulateAndGet(other.max(), Math::max);
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    // The highest value that falls in the same bucket as the percentile, capped at the recorded maximum
+    public long percentile(double percentile) {
+        var total = count();
+        if (total == 0) {
+            return 0;
+        }
+        var rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        var seen = 0L;
+        for (var i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max());
+            }
+        }
+        return max();
+    }
+
+    static int index(long value) {
+        if (value < 2 * HALF) {
+            return (int) value;
+        }
+        var shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        var mantissa = (int) (value >>> shift);
+        return (shift + 1) * HALF + (mantissa - HALF);
+    }
+
+    static long highestValue(int index) {
+        if (index < 2 * HALF) {
+            return index;
+        }
+        var shift = index / HALF - 1;
+        long mantissa = index % HALF + HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,37 @@
+package org.cult;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface LoadTest {
+
+    int threads() default 1;
+
+    // virtual instead of platform threads
+    boolean virtual() default false;
+
+    // operations per second across all threads, 0 to go flat out
+    int rate() default 0;
+
+    // milliseconds
+    long warmup() default 500;
+
+    // milliseconds
+    long duration() default 2000;
+
+    // SLOs in microseconds, 0 for none
+    long p50() default 0;
+
+    long p99() default 0;
+
+    long p999() default 0;
+
+    long max() default 0;
+
+    // operations per second, 0 for none
+    long minThroughput() default 0;
+}
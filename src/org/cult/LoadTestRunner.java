@@ -0,0 +1,197 @@
+package org.cult;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+// Drives each @LoadTest method from several threads and reports throughput and latency percentiles against its SLOs.
+// With a fixed rate, latency is measured from when an operation was due rather than when it started, so a stalled
+// operation also counts against the ones that queued up behind it.
+public class LoadTestRunner {
+
+    public static final String INDEX = "META-INF/cult/loadtests.idx";
+
+    private final ClassLoader classLoader;
+    private int passed;
+    private int failed;
+
+    public LoadTestRunner(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("usage: LoadTestRunner <class-dir-or-jar>...");
+            System.exit(64);
+        }
+
+        var classPath = Arrays.stream(args).map(Paths::get).toList();
+        try {
+            if (!run(classPath)) {
+                System.exit(1);
+            }
+        } catch (ReflectiveOperationException e) {
+            System.err.println("error: could not run load tests");
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println(STR."error: could not load `\{classPath}`");
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    public static boolean run(List<Path> classPath) throws ReflectiveOperationException, IOException {
+        var index = TestRunner.readIndex(classPath, INDEX);
+        try (var classLoader = TestRunner.isolatedClassLoader(classPath)) {
+            var runner = new LoadTestRunner(classLoader);
+            return index.isPresent() ? runner.runAll(index.get()) : runner.runAll();
+        }
+    }
+
+    // Without an index, e.g. when compiled without the processor, fall back to looking through `Main`
+    public boolean runAll() throws ReflectiveOperationException {
+        var mainClass = classLoader.loadClass("Main");
+        var tests = new ArrayList<String>();
+        for (var testClass : mainClass.getDeclaredClasses()) {
+            if (!TestRunner.isAnnotated(testClass, "org.cult.Tests")) {
+                continue;
+            }
+            for (var method : testClass.getDeclaredMethods()) {
+                if (TestRunner.isAnnotated(method, "org.cult.LoadTest")) {
+                    tests.add(STR."\{testClass.getName()}#\{method.getName()}");
+                }
+            }
+        }
+        return runAll(tests);
+    }
+
+    public boolean runAll(List<String> tests) throws ReflectiveOperationException {
+        for (var test : tests) {
+            var split = test.split("#", 2);
+            var method = classLoader.loadClass(split[0]).getDeclaredMethod(split[1]);
+            runLoadTest(method);
+        }
+        System.out.println(STR."    \{passed} passed; \{failed} failed");
+        return failed == 0;
+    }
+
+    void runLoadTest(Method method) {
+        method.setAccessible(true);
+        var name = STR."\{method.getDeclaringClass().getName()}#\{method.getName()}";
+        var threads = (int) attribute(method, "threads", 1);
+        var virtual = (boolean) attribute(method, "virtual", false);
+        var rate = (int) attribute(method, "rate", 0);
+        var warmup = (long) attribute(method, "warmup", 500L);
+        var duration = (long) attribute(method, "duration", 2000L);
+
+        var start = System.nanoTime();
+        var measureFrom = start + TimeUnit.MILLISECONDS.toNanos(warmup);
+        var end = measureFrom + TimeUnit.MILLISECONDS.toNanos(duration);
+        var interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) * threads / rate : 0;
+        var histogram = new Histogram();
+        var errors = new AtomicLong();
+        var firstError = new AtomicReference<Throwable>();
+
+        var workers = new ArrayList<Thread>();
+        for (var i = 0; i < threads; i++) {
+            var offset = interval * i / threads;
+            Runnable worker = () -> {
+                // each worker records into its own histogram, so recording never contends
+                var local = new Histogram();
+                var due = start + offset;
+                while (true) {
+                    // parking can return early, e.g. on a permit left over from the operation itself
+                    long wait;
+                    while (interval > 0 && (wait = due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    var began = interval > 0 ? due : System.nanoTime();
+                    if (began >= end) {
+                        break;
+                    }
+                    try {
+                        method.invoke(null);
+                    } catch (InvocationTargetException e) {
+                        errors.incrementAndGet();
+                        firstError.compareAndSet(null, e.getCause());
+                    } catch (ReflectiveOperationException e) {
+                        errors.incrementAndGet();
+                        firstError.compareAndSet(null, e);
+                    }
+                    if (began >= measureFrom) {
+                        local.record(System.nanoTime() - began);
+                    }
+                    due += interval;
+                }
+                histogram.add(local);
+            };
+            var builder = virtual ? Thread.ofVirtual() : Thread.ofPlatform().daemon(true);
+            workers.add(builder.name(STR."cult-load-\{method.getName()}-\{i}").start(worker));
+        }
+
+        try {
+            for (var worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            fail(name, "interrupted");
+            return;
+        }
+
+        var seconds = duration / 1000.0;
+        var throughput = (long) (histogram.count() / seconds);
+        System.out.printf("    %s  %d %s threads  %d ops/s  p50 %s  p99 %s  p99.9 %s  max %s%n",
+                name, threads, virtual ? "virtual" : "platform", throughput,
+                formatMicros(histogram.percentile(50)), formatMicros(histogram.percentile(99)),
+                formatMicros(histogram.percentile(99.9)), formatMicros(histogram.max()));
+
+        var misses = new ArrayList<String>();
+        if (errors.get() > 0) {
+            misses.add(STR."\{errors.get()} operations threw, first was \{firstError.get()}");
+        }
+        checkSlo(misses, "p50", histogram.percentile(50), (long) attribute(method, "p50", 0L));
+        checkSlo(misses, "p99", histogram.percentile(99), (long) attribute(method, "p99", 0L));
+        checkSlo(misses, "p99.9", histogram.percentile(99.9), (long) attribute(method, "p999", 0L));
+        checkSlo(misses, "max", histogram.max(), (long) attribute(method, "max", 0L));
+        var minThroughput = (long) attribute(method, "minThroughput", 0L);
+        if (minThroughput > 0 && throughput < minThroughput) {
+            misses.add(STR."throughput \{throughput} ops/s is below \{minThroughput} ops/s");
+        }
+
+        if (misses.isEmpty()) {
+            passed++;
+        } else {
+            fail(name, String.join("\n", misses));
+        }
+    }
+
+    private static void checkSlo(List<String> misses, String label, long nanos, long sloMicros) {
+        if (sloMicros > 0 && nanos > TimeUnit.MICROSECONDS.toNanos(sloMicros)) {
+            misses.add(STR."\{label} \{formatMicros(nanos)} is over \{sloMicros}us");
+        }
+    }
+
+    private void fail(String name, String message) {
+        failed++;
+        System.err.println(STR."error: load test \{name} missed its SLOs");
+        System.err.println(message);
+    }
+
+    private static Object attribute(Method method, String attribute, Object fallback) {
+        return TestRunner.attribute(method, "org.cult.LoadTest", attribute, fallback);
+    }
+
+    static String formatMicros(long nanos) {
+        return String.format("%.1fus", nanos / 1000.0);
+    }
+}
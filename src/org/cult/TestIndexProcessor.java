@@ -0,0 +1,80 @@
+package org.cult;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Records every @UnitTest and @LoadTest of a @Tests class while compiling, so the runner can go straight to them. It supports every
+// annotation, which makes javac call it even when there are no tests left and an old index has to be emptied.
+public class TestIndexProcessor extends AbstractProcessor {
+
+    // annotation -> the index its methods are written to
+    private final Map<String, String> indexes = Map.of(
+            UnitTest.class.getName(), TestRunner.INDEX,
+            LoadTest.class.getName(), LoadTestRunner.INDEX
+    );
+    private final Map<String, List<String>> tests = new HashMap<>();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Set.of("*");
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            indexes.values().forEach(this::writeIndex);
+            return false;
+        }
+
+        for (var annotation : annotations) {
+            var index = indexes.get(annotation.getQualifiedName().toString());
+            if (index == null) {
+                continue;
+            }
+            for (var element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                var enclosing = element.getEnclosingElement();
+                if (element.getKind() != ElementKind.METHOD || !isTestClass(enclosing)) {
+                    continue;
+                }
+                var className = processingEnv.getElementUtils().getBinaryName((TypeElement) enclosing);
+                tests.computeIfAbsent(index, _ -> new ArrayList<>()).add(STR."\{className}#\{element.getSimpleName()}");
+            }
+        }
+        return false;
+    }
+
+    private static boolean isTestClass(Element element) {
+        return element instanceof TypeElement && element.getAnnotationMirrors().stream()
+                .anyMatch(mirror -> mirror.getAnnotationType().toString().equals(Tests.class.getName()));
+    }
+
+    private void writeIndex(String index) {
+        var filer = processingEnv.getFiler();
+        try (var writer = filer.createResource(StandardLocation.CLASS_OUTPUT, "", index).openWriter()) {
+            for (var test : tests.getOrDefault(index, List.of())) {
+                writer.write(test);
+                writer.write("\n");
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    STR."could not write test index: \{e.getMessage()}");
+        }
+    }
+}
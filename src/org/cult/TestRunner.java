@@ -0,0 +1,316 @@
+package org.cult;
+
+import com.sun.management.ThreadMXBean;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// The project's classes get their own class loader, so annotations are matched by name rather than by class; that way
+// the runner works with whichever copy of the Cult library the project was compiled against.
+public class TestRunner {
+
+    public static final String INDEX = "META-INF/cult/tests.idx";
+
+    private static final Path HISTORY = Paths.get(".cult", "tests.tsv");
+    private static final long WATCH_INTERVAL_MS = 10;
+    private static final long REGRESSION_FACTOR = 2;
+    private static final long CPU_NOISE_NANOS = 1_000_000;
+    private static final long ALLOCATION_NOISE_BYTES = 1024 * 1024;
+    private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final ClassLoader classLoader;
+    private final List<TestResult> results = new ArrayList<>();
+    private int passed;
+    private int failed;
+
+    public TestRunner(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("usage: TestRunner <class-dir-or-jar>...");
+            System.exit(64);
+        }
+
+        var classPath = Arrays.stream(args).map(Paths::get).toList();
+        try {
+            if (!run(classPath)) {
+                System.exit(1);
+            }
+        } catch (ClassNotFoundException e) {
+            System.err.println("error: could not find `Main` class");
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("error: could not run tests");
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println(STR."error: could not load `\{classPath}`");
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    public static boolean run(List<Path> classPath) throws ReflectiveOperationException, IOException {
+        var index = readIndex(classPath, INDEX);
+        try (var classLoader = isolatedClassLoader(classPath)) {
+            var runner = new TestRunner(classLoader);
+            return index.isPresent() ? runner.runAll(index.get()) : runner.runAll();
+        }
+    }
+
+    static URLClassLoader isolatedClassLoader(List<Path> classPath) throws IOException {
+        var urls = new ArrayList<URL>();
+        for (var path : classPath) {
+            urls.add(path.toUri().toURL());
+        }
+        return new URLClassLoader(urls.toArray(URL[]::new), ClassLoader.getPlatformClassLoader());
+    }
+
+    // Only class directories are read, so indexes inside dependency jars don't pull in the dependencies' own tests
+    static Optional<List<String>> readIndex(List<Path> classPath, String indexName) throws IOException {
+        var found = false;
+        var tests = new ArrayList<String>();
+        for (var path : classPath) {
+            var index = path.resolve(indexName);
+            if (Files.isDirectory(path) && Files.exists(index)) {
+                found = true;
+                Files.readAllLines(index).stream().filter(line -> !line.isBlank()).forEach(tests::add);
+            }
+        }
+        return found ? Optional.of(tests) : Optional.empty();
+    }
+
+    // Loads just the classes named in the index, in index order
+    public boolean runAll(List<String> tests) throws ReflectiveOperationException {
+        var byClass = new LinkedHashMap<String, List<String>>();
+        for (var test : tests) {
+            var split = test.split("#", 2);
+            byClass.computeIfAbsent(split[0], _ -> new ArrayList<>()).add(split[1]);
+        }
+        for (var entry : byClass.entrySet()) {
+            var testClass = classLoader.loadClass(entry.getKey());
+            for (var methodName : entry.getValue()) {
+                runTest(testClass.getDeclaredMethod(methodName));
+            }
+        }
+        return report();
+    }
+
+    // Without an index, e.g. when compiled without the processor, fall back to looking through `Main`
+    public boolean runAll() throws ReflectiveOperationException {
+        var mainClass = classLoader.loadClass("Main");
+        var testClasses = Arrays.stream(mainClass.getDeclaredClasses())
+                .filter(clazz -> isAnnotated(clazz, "org.cult.Tests")).toList();
+        for (var testClass : testClasses) {
+            for (var method : testClass.getDeclaredMethods()) {
+                if (isAnnotated(method, "org.cult.UnitTest")) {
+                    runTest(method);
+                }
+            }
+        }
+        return report();
+    }
+
+    // Each test gets its own thread, so its CPU time and allocations can be measured and its limits enforced
+    void runTest(Method method) {
+        method.setAccessible(true);
+        var name = STR."\{method.getDeclaringClass().getName()}#\{method.getName()}";
+        var timeout = (long) attribute(method, "org.cult.UnitTest", "timeout", 0L);
+        var maxAllocatedBytes = (long) attribute(method, "org.cult.UnitTest", "maxAllocatedBytes", 0L);
+
+        var startAllocated = new AtomicLong(-1);
+        var measurement = new AtomicReference<Measurement>();
+        var failure = new AtomicReference<Throwable>();
+        var thread = new Thread(() -> {
+            var startCpu = THREADS.getCurrentThreadCpuTime();
+            startAllocated.set(THREADS.getCurrentThreadAllocatedBytes());
+            try {
+                method.invoke(null);
+            } catch (InvocationTargetException e) {
+                failure.set(e.getCause());
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                failure.set(e);
+            } finally {
+                var cpu = THREADS.getCurrentThreadCpuTime() - startCpu;
+                var allocated = THREADS.getCurrentThreadAllocatedBytes() - startAllocated.get();
+                measurement.set(new Measurement(cpu, allocated));
+            }
+        }, STR."cult-test-\{method.getName()}");
+        // a hung test can't be stopped, only abandoned
+        thread.setDaemon(true);
+        thread.setContextClassLoader(classLoader);
+
+        var deadline = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : Long.MAX_VALUE;
+        String limitHit = null;
+        thread.start();
+        try {
+            while (thread.isAlive() && limitHit == null) {
+                thread.join(WATCH_INTERVAL_MS);
+                var allocated = THREADS.getThreadAllocatedBytes(thread.threadId()) - startAllocated.get();
+                if (thread.isAlive() && System.nanoTime() > deadline) {
+                    limitHit = STR."timed out after \{timeout}ms";
+                } else if (thread.isAlive() && maxAllocatedBytes > 0 && startAllocated.get() >= 0
+                        && allocated > maxAllocatedBytes) {
+                    limitHit = STR."allocated more than \{maxAllocatedBytes} bytes";
+                }
+            }
+        } catch (InterruptedException e) {
+            limitHit = "interrupted";
+        }
+
+        if (limitHit != null) {
+            thread.interrupt();
+            fail(name, limitHit, null);
+            return;
+        }
+        var result = measurement.get();
+        if (failure.get() != null) {
+            var cause = failure.get();
+            fail(name, cause instanceof AssertionError ? cause.getMessage() : cause.toString(), result);
+        } else if (maxAllocatedBytes > 0 && result.allocatedBytes() > maxAllocatedBytes) {
+            fail(name, STR."allocated \{result.allocatedBytes()} bytes, limit is \{maxAllocatedBytes}", result);
+        } else {
+            passed++;
+            results.add(new TestResult(name, true, result));
+            System.out.print(".");
+        }
+    }
+
+    private void fail(String name, String message, Measurement measurement) {
+        failed++;
+        results.add(new TestResult(name, false, measurement));
+        System.err.println("F");
+        System.err.println(STR."error: test \{name} failed");
+        System.err.println(message);
+    }
+
+    // Prints what each test cost and flags tests that got noticeably more expensive than in the last run
+    boolean report() {
+        System.out.println();
+        var history = readHistory();
+        var width = results.stream().mapToInt(result -> result.name().length()).max().orElse(0);
+        for (var result : results) {
+            var measurement = result.measurement();
+            var cpu = measurement == null ? "" : formatNanos(measurement.cpuNanos());
+            var allocated = measurement == null ? "" : formatBytes(measurement.allocatedBytes());
+            System.out.printf("    %-" + width + "s  %-4s  %10s  %12s%n",
+                    result.name(), result.passed() ? "ok" : "FAIL", cpu, allocated);
+
+            var previous = history.get(result.name());
+            if (result.passed() && previous != null) {
+                if (measurement.cpuNanos() > previous.cpuNanos() * REGRESSION_FACTOR
+                        && measurement.cpuNanos() - previous.cpuNanos() > CPU_NOISE_NANOS) {
+                    var before = formatNanos(previous.cpuNanos());
+                    var after = formatNanos(measurement.cpuNanos());
+                    System.err.println(STR."warning: `\{result.name()}` regressed in cpu time: \{before} -> \{after}");
+                }
+                if (measurement.allocatedBytes() > previous.allocatedBytes() * REGRESSION_FACTOR
+                        && measurement.allocatedBytes() - previous.allocatedBytes() > ALLOCATION_NOISE_BYTES) {
+                    var before = formatBytes(previous.allocatedBytes());
+                    var after = formatBytes(measurement.allocatedBytes());
+                    System.err.println(STR."warning: `\{result.name()}` regressed in allocations: \{before} -> \{after}");
+                }
+            }
+            if (result.passed()) {
+                history.put(result.name(), measurement);
+            }
+        }
+        System.out.println(STR."    \{passed} passed; \{failed} failed");
+        writeHistory(history);
+        return failed == 0;
+    }
+
+    private static Map<String, Measurement> readHistory() {
+        var history = new TreeMap<String, Measurement>();
+        if (!Files.exists(HISTORY)) {
+            return history;
+        }
+        try {
+            for (var line : Files.readAllLines(HISTORY)) {
+                var split = line.split("\t");
+                if (split.length == 3) {
+                    history.put(split[0], new Measurement(Long.parseLong(split[1]), Long.parseLong(split[2])));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println(STR."warning: ignoring unreadable test history `\{HISTORY}`");
+        }
+        return history;
+    }
+
+    private static void writeHistory(Map<String, Measurement> history) {
+        var lines = history.entrySet().stream()
+                .map(entry -> String.join("\t", entry.getKey(),
+                        String.valueOf(entry.getValue().cpuNanos()), String.valueOf(entry.getValue().allocatedBytes())))
+                .toList();
+        try {
+            Files.createDirectories(HISTORY.getParent());
+            Files.write(HISTORY, lines);
+        } catch (IOException e) {
+            System.err.println(STR."warning: could not write test history `\{HISTORY}`");
+        }
+    }
+
+    static String formatNanos(long nanos) {
+        return String.format("%.2fms", nanos / 1_000_000.0);
+    }
+
+    static String formatBytes(long bytes) {
+        return String.format("%.1fKiB", bytes / 1024.0);
+    }
+
+    public int passed() {
+        return passed;
+    }
+
+    public int failed() {
+        return failed;
+    }
+
+    // Annotations may come from another copy of the library, so their values are read by name as well
+    static Object attribute(AnnotatedElement element, String annotationName, String attribute, Object fallback) {
+        for (var annotation : element.getAnnotations()) {
+            if (annotation.annotationType().getName().equals(annotationName)) {
+                try {
+                    return annotation.annotationType().getMethod(attribute).invoke(annotation);
+                } catch (ReflectiveOperationException e) {
+                    // compiled against a version of the annotation without this attribute
+                    return fallback;
+                }
+            }
+        }
+        return fallback;
+    }
+
+    record Measurement(long cpuNanos, long allocatedBytes) {
+    }
+
+    record TestResult(String name, boolean passed, Measurement measurement) {
+    }
+
+    static boolean isAnnotated(AnnotatedElement element, String annotationName) {
+        return Arrays.stream(element.getAnnotations())
+                .anyMatch(annotation -> annotation.annotationType().getName().equals(annotationName));
+    }
+}
@@ -8,5 +8,11 @@ import java.lang.annotation.Target;
 @Target(ElementType.METHOD)
 @Retention(RetentionPolicy.RUNTIME)
 public @interface UnitTest {
+
+    // milliseconds, 0 for no limit
+    long timeout() default 0;
+
+    // bytes allocated by the test's thread, 0 for no limit
+    long maxAllocatedBytes() default 0;
 }
 